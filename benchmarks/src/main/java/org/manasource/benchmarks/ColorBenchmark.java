@@ -0,0 +1,109 @@
+/*
+ *  Copyright (C) 2013  Jared Adams
+ *
+ *  This file is part of ManaDye.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.manasource.benchmarks;
+
+import java.awt.Color;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.manasource.util.Dye;
+import org.manasource.util.Dye.Channel;
+import org.manasource.util.Dye.Palette;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Single color operations, each measured over {@value #COUNT} colors per
+ * invocation.
+ */
+@State ( Scope.Benchmark )
+@BenchmarkMode ( Mode.Throughput )
+@OutputTimeUnit ( TimeUnit.MICROSECONDS )
+@Warmup ( iterations = 3, time = 1 )
+@Measurement ( iterations = 5, time = 1 )
+@Fork ( 2 )
+public class ColorBenchmark {
+
+	static final int COUNT = 1024;
+
+	@Param ( { "1", "4", "16" } )
+	int colors;
+
+	Color[] input;
+
+	int[] intensities;
+
+	Dye dye;
+
+	Palette palette;
+
+	@Setup
+	public void setup() {
+		Random random = new Random( 1 );
+		this.input = new Color[COUNT];
+		this.intensities = new int[COUNT];
+
+		for ( int i = 0; i < COUNT; i++ ) {
+			int v = random.nextInt( 256 );
+			int mask = random.nextInt( 8 );
+			int rgb = mask == 0 ? random.nextInt( 0x1000000 ) : ( ( mask & 1 ) != 0 ? v << 16 : 0 ) | ( ( mask & 2 ) != 0 ? v << 8 : 0 ) | ( ( mask & 4 ) != 0 ? v : 0 );
+			this.input[i] = new Color( rgb | ( random.nextInt( 256 ) << 24 ), true );
+			this.intensities[i] = v;
+		}
+
+		this.dye = Sprites.dye( this.colors );
+		this.palette = Dye.parsePalettes( Sprites.dyeString( this.colors ) ).get( Channel.R );
+	}
+
+	@Benchmark
+	@OperationsPerInvocation ( COUNT )
+	public void update( Blackhole bh ) {
+		for ( Color color : this.input ) {
+			bh.consume( this.dye.update( color ) );
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation ( COUNT )
+	public void getChannel( Blackhole bh ) {
+		for ( Color color : this.input ) {
+			bh.consume( Channel.getChannel( color ) );
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation ( COUNT )
+	public void getColor( Blackhole bh ) {
+		for ( int intensity : this.intensities ) {
+			bh.consume( this.palette.getColor( intensity, 255 ) );
+		}
+	}
+}
@@ -0,0 +1,85 @@
+/*
+ *  Copyright (C) 2013  Jared Adams
+ *
+ *  This file is part of ManaDye.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.manasource.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.manasource.util.Dye;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Dyeing one sprite with many dyes, one dye at a time versus all at once.
+ */
+@State ( Scope.Benchmark )
+@BenchmarkMode ( Mode.Throughput )
+@OutputTimeUnit ( TimeUnit.SECONDS )
+@Warmup ( iterations = 3, time = 1 )
+@Measurement ( iterations = 5, time = 1 )
+@Fork ( value = 2, jvmArgs = { "-Xmx2g" } )
+public class FanOutBenchmark {
+
+	@Param ( { "256", "1024" } )
+	int size;
+
+	@Param ( { "1", "8", "40" } )
+	int dyes;
+
+	BufferedImage sprite;
+
+	List< Dye > variants;
+
+	@Setup
+	public void setup() {
+		this.sprite = Sprites.sprite( this.size );
+		this.variants = new ArrayList< Dye >();
+
+		for ( int i = 0; i < this.dyes; i++ ) {
+			this.variants.add( Sprites.dye( i + 1 ) );
+		}
+	}
+
+	@Benchmark
+	public BufferedImage[] eachDye() {
+		BufferedImage[] ret = new BufferedImage[this.variants.size()];
+
+		for ( int i = 0; i < ret.length; i++ ) {
+			ret[i] = this.variants.get( i ).recolor( this.sprite );
+		}
+
+		return ret;
+	}
+
+	@Benchmark
+	public BufferedImage[] recolorAll() {
+		return Dye.recolorAll( this.sprite, this.variants );
+	}
+}
@@ -0,0 +1,93 @@
+/*
+ *  Copyright (C) 2013  Jared Adams
+ *
+ *  This file is part of ManaDye.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.manasource.benchmarks;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.manasource.util.ImageUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Image loading and copying. PNGs are decoded from memory so disk speed
+ * doesn't matter.
+ */
+@State ( Scope.Benchmark )
+@BenchmarkMode ( Mode.Throughput )
+@OutputTimeUnit ( TimeUnit.SECONDS )
+@Warmup ( iterations = 3, time = 1 )
+@Measurement ( iterations = 5, time = 1 )
+@Fork ( value = 2, jvmArgs = { "-Xmx2g" } )
+public class ImageUtilsBenchmark {
+
+	@Param ( { "32", "256", "1024", "4096" } )
+	int size;
+
+	/**
+	 * The BufferedImage type the PNG is written from, which decides the
+	 * layout ImageIO decodes it to.
+	 */
+	@Param ( { "TYPE_INT_ARGB", "TYPE_BYTE_INDEXED", "TYPE_BYTE_GRAY" } )
+	String type;
+
+	byte[] png;
+
+	BufferedImage sprite;
+
+	@Setup
+	public void setup() throws IOException, ReflectiveOperationException {
+		this.sprite = Sprites.sprite( this.size );
+
+		BufferedImage img = new BufferedImage( this.size, this.size, BufferedImage.class.getField( this.type ).getInt( null ) );
+		Graphics2D g = img.createGraphics();
+		g.drawImage( this.sprite, 0, 0, null );
+		g.dispose();
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ImageIO.write( img, "png", out );
+		this.png = out.toByteArray();
+	}
+
+	@Benchmark
+	public BufferedImage getImage() throws IOException {
+		return ImageUtils.getImage( new ByteArrayInputStream( this.png ) );
+	}
+
+	@Benchmark
+	public BufferedImage copy() {
+		return ImageUtils.copy( this.sprite );
+	}
+}
@@ -0,0 +1,101 @@
+/*
+ *  Copyright (C) 2013  Jared Adams
+ *
+ *  This file is part of ManaDye.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.manasource.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.manasource.util.Dye;
+import org.manasource.util.ImageUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The scalar dye kernel versus the blocked one, with and without the JIT
+ * vectorizing the block classification. The kernel is chosen per fork with
+ * the <code>manadye.kernel</code> system property.
+ */
+@State ( Scope.Benchmark )
+@BenchmarkMode ( Mode.Throughput )
+@OutputTimeUnit ( TimeUnit.SECONDS )
+@Warmup ( iterations = 3, time = 1 )
+@Measurement ( iterations = 5, time = 1 )
+public class KernelBenchmark {
+
+	@Param ( { "sprite", "noise" } )
+	String image;
+
+	@Param ( { "1024" } )
+	int size;
+
+	int[] pixels;
+
+	int[] dest;
+
+	Dye dye;
+
+	@Setup
+	public void setup() {
+		if ( this.image.equals( "sprite" ) ) {
+			this.pixels = ImageUtils.getPixels( Sprites.sprite( this.size ) );
+		} else {
+			// Every pixel different, a third of them pure
+			Random random = new Random( this.size );
+			this.pixels = new int[this.size * this.size];
+
+			for ( int i = 0; i < this.pixels.length; i++ ) {
+				int v = random.nextInt( 256 );
+				this.pixels[i] = random.nextInt( 3 ) == 0 ? 0xff000000 | ( v << 16 ) | ( v << 8 ) : 0xff000000 | random.nextInt( 0x1000000 );
+			}
+		}
+
+		this.dest = new int[this.pixels.length];
+		this.dye = Sprites.dye( 4 );
+	}
+
+	@Benchmark
+	@Fork ( value = 2, jvmArgsAppend = "-Dmanadye.kernel=scalar" )
+	public int[] scalar() {
+		this.dye.recolor( this.pixels, 0, this.dest, 0, this.pixels.length );
+		return this.dest;
+	}
+
+	@Benchmark
+	@Fork ( value = 2, jvmArgsAppend = "-Dmanadye.kernel=blocked" )
+	public int[] blocked() {
+		this.dye.recolor( this.pixels, 0, this.dest, 0, this.pixels.length );
+		return this.dest;
+	}
+
+	@Benchmark
+	@Fork ( value = 2, jvmArgsAppend = { "-Dmanadye.kernel=blocked", "-XX:-UseSuperWord" } )
+	public int[] blockedNoSimd() {
+		this.dye.recolor( this.pixels, 0, this.dest, 0, this.pixels.length );
+		return this.dest;
+	}
+}
@@ -0,0 +1,85 @@
+/*
+ *  Copyright (C) 2013  Jared Adams
+ *
+ *  This file is part of ManaDye.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.manasource.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.manasource.util.Dye;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Dye string parsing.
+ */
+@State ( Scope.Benchmark )
+@BenchmarkMode ( Mode.Throughput )
+@OutputTimeUnit ( TimeUnit.MICROSECONDS )
+@Warmup ( iterations = 3, time = 1 )
+@Measurement ( iterations = 5, time = 1 )
+@Fork ( 2 )
+public class ParseBenchmark {
+
+	@Param ( { "1", "4", "16" } )
+	int colors;
+
+	String dyeString;
+
+	String channels;
+
+	String colorsOnly;
+
+	@Setup
+	public void setup() {
+		this.dyeString = Sprites.dyeString( this.colors );
+
+		// The same palettes, split the way items and players specify them
+		StringBuilder names = new StringBuilder( "equipment/hair.png|" );
+		StringBuilder values = new StringBuilder();
+		for ( String palette : this.dyeString.split( ";" ) ) {
+			if ( values.length() > 0 ) {
+				names.append( ';' );
+				values.append( ';' );
+			}
+			names.append( palette.charAt( 0 ) );
+			values.append( palette.substring( 2 ) );
+		}
+		this.channels = names.toString();
+		this.colorsOnly = values.toString();
+	}
+
+	@Benchmark
+	public Object parsePalettes() {
+		return Dye.parsePalettes( this.dyeString );
+	}
+
+	@Benchmark
+	public Object[] resolveDyes() {
+		return Dye.resolveDyes( this.channels, this.colorsOnly );
+	}
+}
@@ -0,0 +1,78 @@
+/*
+ *  Copyright (C) 2013  Jared Adams
+ *
+ *  This file is part of ManaDye.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.manasource.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.manasource.util.ChannelMap;
+import org.manasource.util.Dye;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Whole image recoloring.
+ */
+@State ( Scope.Benchmark )
+@BenchmarkMode ( Mode.Throughput )
+@OutputTimeUnit ( TimeUnit.SECONDS )
+@Warmup ( iterations = 3, time = 1 )
+@Measurement ( iterations = 5, time = 1 )
+@Fork ( value = 2, jvmArgs = { "-Xmx2g" } )
+public class RecolorBenchmark {
+
+	@Param ( { "32", "256", "1024", "4096" } )
+	int size;
+
+	@Param ( { "1", "4", "16" } )
+	int colors;
+
+	BufferedImage sprite;
+
+	ChannelMap map;
+
+	Dye dye;
+
+	@Setup
+	public void setup() {
+		this.sprite = Sprites.sprite( this.size );
+		this.map = ChannelMap.of( this.sprite );
+		this.dye = Sprites.dye( this.colors );
+	}
+
+	@Benchmark
+	public BufferedImage recolor() {
+		return this.dye.recolor( this.sprite );
+	}
+
+	@Benchmark
+	public BufferedImage recolorChannelMap() {
+		return this.dye.recolorMapped( this.map );
+	}
+}
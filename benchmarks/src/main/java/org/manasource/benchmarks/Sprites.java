@@ -0,0 +1,111 @@
+/*
+ *  Copyright (C) 2013  Jared Adams
+ *
+ *  This file is part of ManaDye.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.manasource.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import org.manasource.util.Dye;
+
+/**
+ * Generates test data that looks like game art: mostly transparent, with a
+ * shape drawn in a few shades of the dye channels and some undyeable colors.
+ */
+final class Sprites {
+
+	private static final char[] CHANNELS = { 'R', 'G', 'Y', 'B', 'M', 'C', 'W' };
+
+	private Sprites() {
+		// Static methods only
+	}
+
+	/**
+	 * Creates a square sprite.
+	 * 
+	 * @param size the width and height
+	 * @return the sprite
+	 */
+	static BufferedImage sprite( int size ) {
+		Random random = new Random( size );
+		BufferedImage img = new BufferedImage( size, size, BufferedImage.TYPE_INT_ARGB );
+
+		int[] colors = new int[24];
+		for ( int i = 0; i < colors.length; i++ ) {
+			int v = 32 + random.nextInt( 224 );
+			int mask = i < 20 ? i % 7 + 1 : 0;
+			int rgb = ( ( mask & 1 ) != 0 ? v << 16 : 0 ) | ( ( mask & 2 ) != 0 ? v << 8 : 0 ) | ( ( mask & 4 ) != 0 ? v : 0 );
+			if ( mask == 0 ) {
+				// Impure, can't be dyed
+				rgb = random.nextInt( 0x1000000 );
+			}
+			colors[i] = 0xff000000 | rgb;
+		}
+
+		// An ellipse of runs, transparent around it
+		int r = size / 2;
+		for ( int y = 0; y < size; y++ ) {
+			for ( int x = 0; x < size; x++ ) {
+				int dx = x - r, dy = y - r;
+				if ( dx * dx + dy * dy < r * r * 3 / 4 ) {
+					img.setRGB( x, y, colors[( x / 3 + y / 5 ) % colors.length] );
+				}
+			}
+		}
+
+		return img;
+	}
+
+	/**
+	 * Creates a dye string covering every channel.
+	 * 
+	 * @param colors the number of colors in each palette
+	 * @return the dye string
+	 */
+	static String dyeString( int colors ) {
+		Random random = new Random( colors );
+		StringBuilder sb = new StringBuilder();
+
+		for ( char channel : CHANNELS ) {
+			if ( sb.length() > 0 ) {
+				sb.append( ';' );
+			}
+			sb.append( channel ).append( ':' );
+
+			for ( int i = 0; i < colors; i++ ) {
+				if ( i > 0 ) {
+					sb.append( ',' );
+				}
+				sb.append( String.format( "#%06x", random.nextInt( 0x1000000 ) ) );
+			}
+		}
+
+		return sb.toString();
+	}
+
+	/**
+	 * Creates a dye covering every channel.
+	 * 
+	 * @param colors the number of colors in each palette
+	 * @return the dye
+	 */
+	static Dye dye( int colors ) {
+		return new Dye( dyeString( colors ) );
+	}
+}
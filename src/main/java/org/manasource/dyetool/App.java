@@ -19,6 +19,8 @@
 
 package org.manasource.dyetool;
 
+import java.util.Arrays;
+
 import org.apache.pivot.beans.BXMLSerializer;
 import org.apache.pivot.collections.Map;
 import org.apache.pivot.wtk.Application;
@@ -65,7 +67,12 @@ public class App implements Application {
 		// no-op
 	}
 
-	public static void main( String[] args ) {
+	public static void main( String[] args ) throws Exception {
+		if ( args.length > 0 && args[0].equals( "--batch" ) ) {
+			BatchDye.main( Arrays.copyOfRange( args, 1, args.length ) );
+			return;
+		}
+
 		DesktopApplicationContext.main( App.class, args );
 	}
 }
@@ -0,0 +1,412 @@
+/*
+ *  Copyright (C) 2013  Jared Adams
+ *
+ *  This file is part of ManaDye.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.manasource.dyetool;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageIO;
+
+import org.apache.commons.io.FilenameUtils;
+import org.manasource.util.Dye;
+import org.manasource.util.ImageUtils;
+import org.manasource.util.PixelRuns;
+import org.manasource.util.StreamingDye;
+
+/**
+ * Headless batch dyeing. The input is either a directory, in which case every
+ * image in it is dyed with every given dye string, or a manifest file with one
+ * <code>name|dye</code> image reference per line (blank lines and lines
+ * starting with <code>#</code> are skipped). Names in a manifest are relative
+ * to the manifest. Given dye strings fill in the channels listed by a manifest
+ * entry, the same way {@link Dye#resolveDyes(String, String)} does.
+ * <p>
+ * Dyed images are written below the output directory at the same relative
+ * path as their manifest entry. Inputs that would still be written to the
+ * same file, such as <code>hat.png</code> and <code>hat.gif</code>, fail
+ * instead of overwriting each other.
+ */
+public class BatchDye {
+
+	/**
+	 * The average run length at which dyeing from {@link PixelRuns} beats
+	 * dyeing pixel by pixel.
+	 */
+	private static final int MIN_RUN_LENGTH = 8;
+
+	/**
+	 * The most bytes of dyed images {@link Dye#recolorAll(BufferedImage, List)}
+	 * may produce at once.
+	 */
+	private static final long FAN_OUT_BYTES = 64L * 1024 * 1024;
+
+	private final File outputDir;
+
+	private final List< String > dyes;
+
+	private final ThreadPoolExecutor executor;
+
+	private final AtomicInteger written = new AtomicInteger();
+
+	private final AtomicInteger failed = new AtomicInteger();
+
+	private final AtomicLong pixels = new AtomicLong();
+
+	/**
+	 * The input file and dye string each output file is written for.
+	 */
+	private final ConcurrentHashMap< File, String > outputs = new ConcurrentHashMap< File, String >();
+
+	private boolean streaming;
+
+	/**
+	 * @param outputDir where to write the dyed images
+	 * @param dyes the dye strings to apply to every input, may be empty
+	 * @param threads the number of worker threads
+	 */
+	public BatchDye( File outputDir, List< String > dyes, int threads ) {
+		this.outputDir = outputDir;
+		this.dyes = dyes;
+
+		// A short queue keeps the reader from running far ahead of the
+		// workers, once it is full the reader dyes the next image itself
+		this.executor = new ThreadPoolExecutor( threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue< Runnable >( threads * 2 ), new ThreadPoolExecutor.CallerRunsPolicy() );
+	}
+
+	/**
+	 * @return whether images are dyed band by band, see {@link StreamingDye}
+	 */
+	public boolean isStreaming() {
+		return this.streaming;
+	}
+
+	/**
+	 * Sets whether images are dyed band by band with {@link StreamingDye},
+	 * which bounds memory use by the band size instead of the image size at
+	 * the cost of decoding each image several times.
+	 * 
+	 * @param streaming whether to stream images
+	 */
+	public void setStreaming( boolean streaming ) {
+		this.streaming = streaming;
+	}
+
+	/**
+	 * Dyes every image in a directory or manifest and waits for the results.
+	 * 
+	 * @param input a directory or manifest file
+	 * @throws IOException if the input can't be read
+	 * @throws InterruptedException if interrupted while waiting for the
+	 *             workers
+	 */
+	public void run( File input ) throws IOException, InterruptedException {
+		try {
+			if ( input.isDirectory() ) {
+				submitDirectory( input );
+			} else {
+				submitManifest( input );
+			}
+		} finally {
+			this.executor.shutdown();
+			this.executor.awaitTermination( Long.MAX_VALUE, TimeUnit.MILLISECONDS );
+		}
+	}
+
+	private void submitDirectory( File dir ) throws IOException {
+		ImageFilter filter = new ImageFilter();
+
+		try ( DirectoryStream< Path > stream = Files.newDirectoryStream( dir.toPath() ) ) {
+			for ( Path path : stream ) {
+				File file = path.toFile();
+
+				// ImageFilter excludes the files it accepts
+				if ( !filter.include( file ) ) {
+					submit( file, file.getName() );
+				}
+			}
+		}
+	}
+
+	private void submitManifest( File manifest ) throws IOException {
+		File base = manifest.getAbsoluteFile().getParentFile();
+
+		try ( BufferedReader reader = Files.newBufferedReader( manifest.toPath(), StandardCharsets.UTF_8 ) ) {
+			String line;
+
+			while ( ( line = reader.readLine() ) != null ) {
+				line = line.trim();
+
+				if ( line.length() == 0 || line.charAt( 0 ) == '#' ) {
+					continue;
+				}
+
+				int n = line.indexOf( '|' );
+				File file = new File( base, n == -1 ? line : line.substring( 0, n ) );
+				submit( file, line );
+			}
+		}
+	}
+
+	private void submit( final File file, final String name ) {
+		this.executor.execute( new Runnable() {
+
+			@Override
+			public void run() {
+				dye( file, name );
+			}
+		} );
+	}
+
+	void dye( File file, String name ) {
+		try {
+			List< String > dyeStrings = this.dyes.isEmpty() ? Collections.singletonList( (String) null ) : this.dyes;
+			List< Dye > dyes = new ArrayList< Dye >( dyeStrings.size() );
+			List< File > outputFiles = new ArrayList< File >( dyeStrings.size() );
+
+			for ( String dyeString : dyeStrings ) {
+				Object[] resolved = Dye.resolveDyes( name, dyeString );
+				dyes.add( (Dye) resolved[1] );
+				outputFiles.add( getOutputFile( file, name, (String) resolved[0], dyeString ) );
+			}
+
+			if ( this.streaming ) {
+				for ( int i = 0; i < dyes.size(); i++ ) {
+					long count = StreamingDye.recolor( dyes.get( i ), file, outputFiles.get( i ) );
+
+					this.written.incrementAndGet();
+					this.pixels.addAndGet( count );
+				}
+				return;
+			}
+
+			BufferedImage source = ImageUtils.getImage( file, true );
+			if ( source == null ) {
+				throw new IOException( "not a readable image" );
+			}
+
+			// Long runs are dyed once per run, anything else a block at a time
+			// with every dye, as many dyes at once as fit in FAN_OUT_BYTES
+			PixelRuns runs = null;
+			if ( dyes.size() > 1 && ! ( source.getColorModel() instanceof IndexColorModel ) ) {
+				runs = PixelRuns.of( source );
+				if ( runs.getAverageLength() < MIN_RUN_LENGTH ) {
+					runs = null;
+				}
+			}
+
+			long imageBytes = (long) source.getWidth() * source.getHeight() * 4;
+			int group = (int) Math.max( 1, Math.min( dyes.size(), FAN_OUT_BYTES / imageBytes ) );
+
+			for ( int from = 0; from < dyes.size(); from += group ) {
+				List< Dye > part = dyes.subList( from, Math.min( from + group, dyes.size() ) );
+				BufferedImage[] results;
+
+				if ( runs != null ) {
+					results = new BufferedImage[part.size()];
+					for ( int i = 0; i < results.length; i++ ) {
+						results[i] = part.get( i ).recolorRuns( runs );
+					}
+				} else if ( part.size() > 1 ) {
+					results = Dye.recolorAll( source, part );
+				} else {
+					results = new BufferedImage[] { part.get( 0 ).recolor( source ) };
+				}
+
+				for ( int i = 0; i < results.length; i++ ) {
+					write( results[i], outputFiles.get( from + i ) );
+				}
+			}
+		} catch ( IOException | RuntimeException e ) {
+			this.failed.incrementAndGet();
+			System.err.println( name + ": " + e.getMessage() );
+		}
+	}
+
+	private void write( BufferedImage result, File output ) throws IOException {
+		ImageIO.write( result, "png", output );
+
+		this.written.incrementAndGet();
+		this.pixels.addAndGet( (long) result.getWidth() * result.getHeight() );
+	}
+
+	/**
+	 * Picks the file to write an input dyed with a dye string to, and claims
+	 * it for that input.
+	 * 
+	 * @param file the input file
+	 * @param name the manifest entry or file name of the input
+	 * @param path the path part of <code>name</code>
+	 * @param dyeString the given dye string, may be <code>null</code>
+	 * @return the output file, whose directory exists
+	 * @throws IOException if another input is written to the same file or
+	 *             the directory can't be created
+	 */
+	private File getOutputFile( File file, String name, String path, String dyeString ) throws IOException {
+		String suffix = name.indexOf( '|' ) == -1 ? "" : name.substring( name.indexOf( '|' ) + 1 );
+		if ( dyeString != null ) {
+			suffix += suffix.length() == 0 ? dyeString : ";" + dyeString;
+		}
+
+		File dir = this.outputDir;
+		String relative = FilenameUtils.normalize( path );
+		if ( relative != null && FilenameUtils.getPrefixLength( relative ) == 0 ) {
+			String parent = FilenameUtils.getPath( relative );
+			if ( parent.length() > 0 ) {
+				dir = new File( dir, parent );
+			}
+		}
+		// Paths outside the manifest's directory end up in outputDir itself
+
+		File ret = new File( dir, getFileName( FilenameUtils.getBaseName( path ), suffix ) );
+
+		String input = file.getAbsolutePath() + '|' + suffix;
+		String other = this.outputs.putIfAbsent( ret, input );
+		if ( other != null && !other.equals( input ) ) {
+			throw new IOException( "would overwrite " + ret + ", also written for " + other );
+		}
+
+		if ( !dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory() ) {
+			throw new IOException( "Cannot create " + dir );
+		}
+
+		return ret;
+	}
+
+	/**
+	 * Builds a file name for a dyed image that is safe on any file system.
+	 * 
+	 * @param base the base name of the source image
+	 * @param dye the dye information
+	 * @return the file name
+	 */
+	static String getFileName( String base, String dye ) {
+		if ( dye.length() == 0 ) {
+			return base + ".png";
+		}
+
+		StringBuilder sb = new StringBuilder( base ).append( '_' );
+
+		for ( int i = 0; i < dye.length(); i++ ) {
+			char c = dye.charAt( i );
+			if ( Character.isLetterOrDigit( c ) ) {
+				sb.append( c );
+			} else if ( c == ':' ) {
+				sb.append( '-' );
+			} else if ( c == ';' ) {
+				sb.append( '_' );
+			} else if ( c == ',' ) {
+				sb.append( '.' );
+			}
+		}
+
+		return sb.append( ".png" ).toString();
+	}
+
+	/**
+	 * @return the number of images written
+	 */
+	public int getWritten() {
+		return this.written.get();
+	}
+
+	/**
+	 * @return the number of inputs that couldn't be dyed
+	 */
+	public int getFailed() {
+		return this.failed.get();
+	}
+
+	/**
+	 * @return the number of pixels written
+	 */
+	public long getPixels() {
+		return this.pixels.get();
+	}
+
+	private static void usage() {
+		System.err.println( "Usage: --batch [-o outputDir] [-d dye]... [-t threads] [-s] <directory|manifest>" );
+		System.exit( 2 );
+	}
+
+	public static void main( String[] args ) throws Exception {
+		File outputDir = new File( "." );
+		List< String > dyes = new ArrayList< String >();
+		int threads = Runtime.getRuntime().availableProcessors();
+		File input = null;
+		boolean streaming = false;
+
+		for ( int i = 0; i < args.length; i++ ) {
+			String arg = args[i];
+
+			if ( arg.equals( "-o" ) && i + 1 < args.length ) {
+				outputDir = new File( args[++i] );
+			} else if ( arg.equals( "-d" ) && i + 1 < args.length ) {
+				dyes.add( args[++i] );
+			} else if ( arg.equals( "-t" ) && i + 1 < args.length ) {
+				try {
+					threads = Math.max( 1, Integer.parseInt( args[++i] ) );
+				} catch ( NumberFormatException e ) {
+					usage();
+				}
+			} else if ( arg.equals( "-s" ) ) {
+				streaming = true;
+			} else if ( input == null && !arg.startsWith( "-" ) ) {
+				input = new File( arg );
+			} else {
+				usage();
+			}
+		}
+
+		if ( input == null || !input.exists() ) {
+			usage();
+		}
+
+		if ( !outputDir.isDirectory() && !outputDir.mkdirs() ) {
+			throw new IOException( "Cannot create " + outputDir );
+		}
+
+		BatchDye batch = new BatchDye( outputDir, dyes, threads );
+		batch.setStreaming( streaming );
+
+		long start = System.nanoTime();
+		batch.run( input );
+		double seconds = ( System.nanoTime() - start ) / 1e9;
+
+		System.out.printf( "%d images (%d failed), %.1f Mpx in %.2f s: %.1f images/s, %.1f Mpx/s%n", batch.getWritten(), batch.getFailed(), batch.getPixels() / 1e6, seconds, batch.getWritten() / seconds, batch.getPixels() / 1e6 / seconds );
+
+		System.exit( batch.getFailed() == 0 ? 0 : 1 );
+	}
+}
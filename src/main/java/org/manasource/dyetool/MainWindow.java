@@ -26,10 +26,12 @@ import org.apache.pivot.beans.Bindable;
 import org.apache.pivot.collections.Map;
 import org.apache.pivot.util.Resources;
 import org.apache.pivot.wtk.Action;
+import org.apache.pivot.wtk.ApplicationContext;
 import org.apache.pivot.wtk.Button;
 import org.apache.pivot.wtk.Component;
 import org.apache.pivot.wtk.Form;
 import org.apache.pivot.wtk.TextInput;
+import org.apache.pivot.wtk.TextInputContentListener;
 import org.apache.pivot.wtk.Window;
 import org.manasource.pivot.ImagePane;
 import org.manasource.pivot.MiddleClickPasteListener;
@@ -56,6 +58,46 @@ public class MainWindow extends Window implements Bindable {
 	@BXML
 	Button applyDyeButton;
 
+	/**
+	 * How long typing has to pause before the dye string is applied, in
+	 * milliseconds.
+	 */
+	public static final long LIVE_DYE_DELAY = 150;
+
+	private ApplicationContext.ScheduledCallback liveDyeCallback;
+
+	private final Runnable liveDye = new Runnable() {
+
+		@Override
+		public void run() {
+			MainWindow.this.liveDyeCallback = null;
+
+			// Strings that are still being typed may not parse yet
+			Dye dye = Dye.tryParse( MainWindow.this.dyeStringInput.getText() );
+			if ( dye != null ) {
+				MainWindow.this.dyePane.setDye( dye );
+			}
+		}
+	};
+
+	private final TextInputContentListener dyeStringListener = new TextInputContentListener.Adapter() {
+
+		@Override
+		public void textInserted( TextInput textInput, int index, int count ) {
+			scheduleLiveDye();
+		}
+
+		@Override
+		public void textRemoved( TextInput textInput, int index, int count ) {
+			scheduleLiveDye();
+		}
+
+		@Override
+		public void textChanged( TextInput textInput ) {
+			scheduleLiveDye();
+		}
+	};
+
 	private final Action applyDye = new Action( true ) {
 
 		@Override
@@ -66,15 +108,28 @@ public class MainWindow extends Window implements Bindable {
 		@Override
 		public void perform( Component source ) {
 			String dyeString = MainWindow.this.dyeStringInput.getText();
-			MainWindow.this.dyePane.setDye( new Dye( dyeString ) );
+			MainWindow.this.dyePane.setDye( Dye.valueOf( dyeString ) );
 		}
 	};
 
+	/**
+	 * Applies the dye string once typing pauses, replacing the update
+	 * scheduled by the previous edit.
+	 */
+	void scheduleLiveDye() {
+		if ( this.liveDyeCallback != null ) {
+			this.liveDyeCallback.cancel();
+		}
+
+		this.liveDyeCallback = ApplicationContext.scheduleCallback( this.liveDye, LIVE_DYE_DELAY );
+	}
+
 	@Override
 	public void initialize( Map< String, Object > namespace, URL location, Resources resources ) {
 		this.applyDyeButton.setAction( this.applyDye );
 		this.form.setMinimumHeight( this.form.getPreferredHeight() );
 		this.dyeStringInput.getComponentMouseButtonListeners().add( new MiddleClickPasteListener() );
 		this.dyeStringInput.setMenuHandler( new TextContextMenu() );
+		this.dyeStringInput.getTextInputContentListeners().add( this.dyeStringListener );
 	}
 }
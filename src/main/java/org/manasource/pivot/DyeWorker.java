@@ -0,0 +1,292 @@
+/*
+ *  Copyright (C) 2013  Jared Adams
+ *
+ *  This file is part of ManaDye.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.manasource.pivot;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.commons.lang3.ObjectUtils;
+import org.apache.pivot.wtk.ApplicationContext;
+import org.manasource.util.ChannelMap;
+import org.manasource.util.Dye;
+import org.manasource.util.DyeCache;
+import org.manasource.util.ImageUtils;
+
+/**
+ * Dyes {@link DyeableImage}s on a background thread. Submitting a new dye
+ * cancels the job still running for an older one, and the image keeps
+ * showing its previous dye until the new one is ready. Results are handed to
+ * the image on the UI thread through
+ * {@link ApplicationContext#queueCallback(Runnable)}. Large images show a low
+ * resolution preview of the new dye in the meantime, see
+ * {@link DyeableImage#setPreview(Dye)}.
+ * <p>
+ * All methods must be called on the UI thread.
+ */
+public class DyeWorker {
+
+	/**
+	 * The number of rows dyed between checks for cancellation.
+	 */
+	public static final int BAND_HEIGHT = 64;
+
+	/**
+	 * Images with more pixels than this show a preview of the new dye while
+	 * the full image is dyed.
+	 */
+	public static final int PREVIEW_THRESHOLD = 1024 * 1024;
+
+	private class Job implements Runnable {
+
+		private final DyeableImage image;
+
+		private final BufferedImage source;
+
+		/**
+		 * The dye to set and the dye to dye with, which isn't null.
+		 */
+		private final Dye target, dye;
+
+		private final DyeCache dyeCache;
+
+		private ChannelMap map;
+
+		/**
+		 * The fully dyed cache of the image and its dye, if there is one.
+		 */
+		private final BufferedImage base;
+
+		private final Dye baseDye;
+
+		/**
+		 * Whether the result belongs to the dye cache or shares the pixels of
+		 * the source, and so must not be dyed in place.
+		 */
+		private final boolean shared;
+
+		Job( DyeableImage image, Dye dye ) {
+			this.image = image;
+			this.source = image.getSource();
+			this.target = dye;
+			this.dye = dye == null ? NO_DYE : dye;
+			this.dyeCache = image.getDyeCache();
+			this.map = image.getChannelMap();
+
+			if ( image.isRedyePending() ) {
+				this.base = null;
+			} else {
+				this.base = image.getCache();
+			}
+			this.baseDye = image.getDye();
+			this.shared = this.dyeCache != null || this.source.getColorModel() instanceof IndexColorModel;
+		}
+
+		@Override
+		public void run() {
+			final BufferedImage result;
+
+			try {
+				result = dye();
+			} catch ( final Throwable e ) {
+				// Would otherwise be swallowed by the Future. Errors too, most
+				// likely running out of memory for the result of a huge image
+				ApplicationContext.queueCallback( new Runnable() {
+
+					@Override
+					public void run() {
+						fail( Job.this, e );
+					}
+				} );
+				return;
+			}
+
+			if ( result == null ) {
+				// Cancelled
+				return;
+			}
+
+			ApplicationContext.queueCallback( new Runnable() {
+
+				@Override
+				public void run() {
+					publish( Job.this, result );
+				}
+			} );
+		}
+
+		/**
+		 * @return the dyed source, or <code>null</code> if cancelled
+		 */
+		private BufferedImage dye() {
+			if ( this.dyeCache != null ) {
+				return this.dyeCache.recolor( this.dye, this.source );
+			}
+			if ( this.source.getColorModel() instanceof IndexColorModel ) {
+				return this.dye.recolorIndexed( this.source );
+			}
+
+			int w = this.source.getWidth();
+			int h = this.source.getHeight();
+			BufferedImage ret = new BufferedImage( w, h, BufferedImage.TYPE_INT_ARGB );
+
+			int[] basePixels = this.base == null ? null : ImageUtils.getData( this.base );
+
+			if ( basePixels != null ) {
+				// A redye: analyse the source once, then only dye what changed
+				if ( this.map == null ) {
+					this.map = ChannelMap.of( this.source );
+				}
+				if ( Thread.currentThread().isInterrupted() ) {
+					return null;
+				}
+
+				System.arraycopy( basePixels, 0, ImageUtils.getData( ret ), 0, w * h );
+				this.dye.recolorChanged( this.map, this.baseDye == null ? NO_DYE : this.baseDye, ret );
+
+				return ret;
+			}
+
+			for ( int y = 0; y < h; y += BAND_HEIGHT ) {
+				if ( Thread.currentThread().isInterrupted() ) {
+					return null;
+				}
+
+				Rectangle band = new Rectangle( 0, y, w, BAND_HEIGHT );
+
+				if ( this.map != null ) {
+					this.dye.recolorMappedRegion( this.map, ret, band );
+				} else {
+					this.dye.recolorRegion( this.source, ret, band );
+				}
+			}
+
+			return ret;
+		}
+	}
+
+	private static final Dye NO_DYE = new Dye( "" );
+
+	private final ExecutorService executor = Executors.newSingleThreadExecutor( new ThreadFactory() {
+
+		@Override
+		public Thread newThread( Runnable r ) {
+			Thread thread = new Thread( r, "DyeWorker" );
+			thread.setDaemon( true );
+			return thread;
+		}
+	} );
+
+	private Job current;
+
+	private Future< ? > future;
+
+	/**
+	 * Starts dyeing an image in the background, cancelling the previous job.
+	 * 
+	 * @param image the image to dye
+	 * @param dye the dye to apply
+	 */
+	public void submit( DyeableImage image, Dye dye ) {
+		cancel();
+
+		if ( image.getSource() == null ) {
+			image.setDye( dye );
+			return;
+		}
+
+		this.current = new Job( image, dye );
+		this.future = this.executor.submit( this.current );
+
+		if ( (long) image.getWidth() * image.getHeight() > PREVIEW_THRESHOLD ) {
+			image.setPreview( dye );
+		}
+	}
+
+	/**
+	 * Cancels the running job, if any. Its result is never published.
+	 */
+	public void cancel() {
+		if ( this.future != null ) {
+			this.future.cancel( true );
+			this.future = null;
+		}
+		this.current = null;
+	}
+
+	/**
+	 * @return <code>true</code> if a job hasn't published its result yet
+	 */
+	public boolean isBusy() {
+		return this.current != null;
+	}
+
+	/**
+	 * Stops the background thread. Running jobs are cancelled.
+	 */
+	public void shutdown() {
+		cancel();
+		this.executor.shutdownNow();
+	}
+
+	void publish( Job job, BufferedImage result ) {
+		if ( job != this.current ) {
+			// Superseded while waiting for the UI thread
+			return;
+		}
+
+		this.current = null;
+		this.future = null;
+
+		// Drop the result if the image was dyed some other way in the meantime
+		if ( !ObjectUtils.equals( job.image.getDye(), job.baseDye ) ) {
+			return;
+		}
+
+		if ( job.map != null && job.image.getChannelMap() == null ) {
+			job.image.setChannelMap( job.map );
+		}
+		job.image.setDye( job.target, result, job.shared );
+	}
+
+	void fail( Job job, Throwable e ) {
+		if ( job != this.current ) {
+			// Superseded, the newer job clears the preview
+			return;
+		}
+
+		this.current = null;
+		this.future = null;
+		job.image.clearPreview();
+
+		// Report it like any other error on the UI thread
+		if ( e instanceof Error ) {
+			throw (Error) e;
+		}
+		if ( e instanceof RuntimeException ) {
+			throw (RuntimeException) e;
+		}
+		throw new IllegalStateException( e );
+	}
+}
@@ -20,12 +20,19 @@
 package org.manasource.pivot;
 
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.util.Arrays;
 
 import org.apache.commons.lang3.ObjectUtils;
 import org.apache.pivot.wtk.media.Image;
 import org.apache.pivot.wtk.media.ImageListener;
+import org.manasource.util.ChannelMap;
 import org.manasource.util.Dye;
+import org.manasource.util.DyeCache;
+import org.manasource.util.DyeMetrics;
 import org.manasource.util.ImageUtils;
 
 /**
@@ -39,17 +46,92 @@ public class DyeableImage extends Image {
 
 	private final BufferedImage source;
 
+	/**
+	 * The default width and height of the tiles the cache is dyed in.
+	 */
+	public static final int TILE_SIZE = 128;
+
+	/**
+	 * About the most pixels a preview dyes, so that dyeing one takes a
+	 * fraction of a millisecond however large the source is.
+	 */
+	public static final int PREVIEW_PIXELS = 256 * 256;
+
+	private static final Dye NO_DYE = new Dye( "" );
+
 	private BufferedImage cache;
 
-	private boolean needsRedye = true;
+	/**
+	 * Whether the cache belongs to someone else and can't be dyed in place.
+	 */
+	private boolean cacheShared;
+
+	private final int tileWidth, tileHeight;
+
+	private final int tilesX, tilesY;
+
+	private final boolean[] validTiles;
+
+	private int invalidTiles;
+
+	private DyeCache dyeCache;
+
+	/**
+	 * The analysed source, built once the source is dyed a second time.
+	 */
+	private ChannelMap channelMap;
+
+	/**
+	 * The dye a fully dyed cache still shows after the dye changed, or
+	 * <code>null</code>. Such a cache is brought up to date by rewriting only
+	 * the channels that changed.
+	 */
+	private Dye cacheDye;
+
+	/**
+	 * The shrunk source previews are dyed from, made when first needed.
+	 */
+	private BufferedImage previewSource;
+
+	private int previewStep;
+
+	/**
+	 * The dyed preview painted instead of the cache, or <code>null</code>.
+	 */
+	private BufferedImage preview;
 
 	/**
 	 * @param source the source image
 	 */
 	public DyeableImage( BufferedImage source ) {
+		this( source, TILE_SIZE, TILE_SIZE );
+	}
+
+	/**
+	 * @param source the source image
+	 * @param tileWidth the width of the pieces the source is dyed in
+	 * @param tileHeight the height of the pieces the source is dyed in
+	 */
+	public DyeableImage( BufferedImage source, int tileWidth, int tileHeight ) {
 		super();
 
+		if ( tileWidth <= 0 || tileHeight <= 0 ) {
+			throw new IllegalArgumentException( "tiles must not be empty" );
+		}
+
 		this.source = source;
+		this.tileWidth = tileWidth;
+		this.tileHeight = tileHeight;
+
+		if ( source == null ) {
+			this.tilesX = this.tilesY = 0;
+		} else {
+			this.tilesX = ( source.getWidth() + tileWidth - 1 ) / tileWidth;
+			this.tilesY = ( source.getHeight() + tileHeight - 1 ) / tileHeight;
+		}
+
+		this.validTiles = new boolean[this.tilesX * this.tilesY];
+		this.invalidTiles = this.validTiles.length;
 	}
 
 	/**
@@ -77,14 +159,159 @@ public class DyeableImage extends Image {
 			return;
 		}
 
+		// Images that are redyed tend to be redyed again and again
+		if ( this.channelMap == null && this.cache != null && !this.cacheShared ) {
+			this.channelMap = ChannelMap.of( this.source );
+		}
+
+		if ( this.channelMap != null && this.invalidTiles == 0 && !this.cacheShared ) {
+			if ( this.cacheDye == null ) {
+				this.cacheDye = this.dye == null ? NO_DYE : this.dye;
+			}
+		} else {
+			invalidate();
+		}
+
 		this.dye = dye;
-		this.needsRedye = true;
+		this.preview = null;
 		getDyeChangeListeners().dyeChanged( this, dye );
 		for ( ImageListener listener : getImageListeners() ) {
 			listener.regionUpdated( this, 0, 0, getWidth(), getHeight() );
 		}
 	}
 
+	/**
+	 * Sets the dye together with the source already dyed with it, for example
+	 * by a {@link DyeWorker}. The dyed image becomes the cache and must not be
+	 * modified by anyone afterwards. Indexed images and images from the
+	 * {@link DyeCache} of this image are never dyed in place, any other image
+	 * is once the dye changes again.
+	 * 
+	 * @param dye the dye to set
+	 * @param dyed the source dyed with <code>dye</code>
+	 * @throws IllegalArgumentException if the size of <code>dyed</code>
+	 *             differs from the source
+	 */
+	public void setDye( Dye dye, BufferedImage dyed ) {
+		setDye( dye, dyed, dyed.getColorModel() instanceof IndexColorModel || this.dyeCache != null );
+	}
+
+	/**
+	 * Sets the dye together with the source already dyed with it.
+	 * 
+	 * @param dye the dye to set
+	 * @param dyed the source dyed with <code>dye</code>
+	 * @param shared whether <code>dyed</code> belongs to someone else, such
+	 *            as a {@link DyeCache}, and must never be dyed in place
+	 * @throws IllegalArgumentException if the size of <code>dyed</code>
+	 *             differs from the source
+	 */
+	public void setDye( Dye dye, BufferedImage dyed, boolean shared ) {
+		if ( dyed.getWidth() != getWidth() || dyed.getHeight() != getHeight() ) {
+			throw new IllegalArgumentException( "dyed must be " + getWidth() + "x" + getHeight() );
+		}
+
+		boolean changed = !ObjectUtils.equals( this.dye, dye );
+
+		this.dye = dye;
+		this.cache = dyed;
+		this.cacheShared = shared || dyed.getColorModel() instanceof IndexColorModel;
+		this.cacheDye = null;
+		this.preview = null;
+		Arrays.fill( this.validTiles, true );
+		this.invalidTiles = 0;
+
+		if ( changed ) {
+			getDyeChangeListeners().dyeChanged( this, dye );
+		}
+		for ( ImageListener listener : getImageListeners() ) {
+			listener.regionUpdated( this, 0, 0, getWidth(), getHeight() );
+		}
+	}
+
+	/**
+	 * Shows a low resolution version of the source dyed with the given dye
+	 * until the dye is set, for example while a {@link DyeWorker} dyes the
+	 * full image. Only about {@link #PREVIEW_PIXELS} pixels are dyed, however
+	 * large the source is. Painting scales the preview up.
+	 * 
+	 * @param previewDye the dye to preview
+	 */
+	public void setPreview( Dye previewDye ) {
+		if ( this.source == null ) {
+			return;
+		}
+
+		if ( this.previewSource == null ) {
+			long pixels = (long) getWidth() * getHeight();
+			int step = (int) Math.ceil( Math.sqrt( (double) pixels / PREVIEW_PIXELS ) );
+
+			this.previewStep = Math.max( step, 1 );
+			this.previewSource = ImageUtils.decimate( this.source, this.previewStep );
+		}
+
+		this.preview = ( previewDye == null ? NO_DYE : previewDye ).recolor( this.previewSource );
+
+		for ( ImageListener listener : getImageListeners() ) {
+			listener.regionUpdated( this, 0, 0, getWidth(), getHeight() );
+		}
+	}
+
+	/**
+	 * Stops painting the preview, if there is one, without changing the dye.
+	 */
+	public void clearPreview() {
+		if ( this.preview == null ) {
+			return;
+		}
+
+		this.preview = null;
+
+		for ( ImageListener listener : getImageListeners() ) {
+			listener.regionUpdated( this, 0, 0, getWidth(), getHeight() );
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if a preview is painted instead of the image
+	 */
+	public boolean isPreviewShown() {
+		return this.preview != null;
+	}
+
+	/**
+	 * @return the analysed source, or <code>null</code> if not built yet
+	 */
+	ChannelMap getChannelMap() {
+		return this.channelMap;
+	}
+
+	/**
+	 * @param channelMap the analysed source
+	 */
+	void setChannelMap( ChannelMap channelMap ) {
+		this.channelMap = channelMap;
+	}
+
+	/**
+	 * @return the shared cache of dyed images, or <code>null</code> if not set
+	 */
+	public DyeCache getDyeCache() {
+		return this.dyeCache;
+	}
+
+	/**
+	 * Sets a cache to look dyed images up in before dyeing the source.
+	 * 
+	 * @param dyeCache the shared cache of dyed images, or <code>null</code>
+	 */
+	public void setDyeCache( DyeCache dyeCache ) {
+		if ( this.dyeCache != dyeCache ) {
+			this.dyeCache = dyeCache;
+			invalidate();
+		}
+	}
+
 	/**
 	 * @return the source
 	 */
@@ -93,43 +320,193 @@ public class DyeableImage extends Image {
 	}
 
 	/**
+	 * Marks the whole cache as out of date.
+	 */
+	private void invalidate() {
+		Arrays.fill( this.validTiles, false );
+		this.invalidTiles = this.validTiles.length;
+		this.cacheDye = null;
+
+		if ( this.cacheShared ) {
+			this.cache = null;
+			this.cacheShared = false;
+		}
+	}
+
+	/**
+	 * Returns whether the next call to {@link #getCache()} has to dye any
+	 * part of the source image.
+	 * 
+	 * @return <code>true</code> if any part of the cache is out of date
+	 */
+	public boolean isRedyePending() {
+		return this.invalidTiles > 0 || this.cacheDye != null;
+	}
+
+	/**
+	 * Returns whether <code>getCache(region)</code> has to dye any part of
+	 * the source image.
+	 * 
+	 * @param region the part of the image of interest
+	 * @return <code>true</code> if any part of the region is out of date
+	 */
+	public boolean isRedyePending( Rectangle region ) {
+		if ( this.cacheDye != null ) {
+			return true;
+		}
+		if ( this.invalidTiles == 0 ) {
+			return false;
+		}
+
+		Rectangle tiles = getTiles( region );
+
+		for ( int ty = tiles.y; ty < tiles.y + tiles.height; ty++ ) {
+			for ( int tx = tiles.x; tx < tiles.x + tiles.width; tx++ ) {
+				if ( !this.validTiles[ty * this.tilesX + tx] ) {
+					return true;
+				}
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Returns the range of tiles covering the given region.
+	 */
+	private Rectangle getTiles( Rectangle region ) {
+		Rectangle r = region.intersection( new Rectangle( getWidth(), getHeight() ) );
+		if ( r.isEmpty() ) {
+			return new Rectangle();
+		}
+
+		int x1 = r.x / this.tileWidth, y1 = r.y / this.tileHeight;
+		int x2 = ( r.x + r.width - 1 ) / this.tileWidth, y2 = ( r.y + r.height - 1 ) / this.tileHeight;
+
+		return new Rectangle( x1, y1, x2 - x1 + 1, y2 - y1 + 1 );
+	}
+
+	/**
+	 * Returns the dyed image, dyeing the source first if the dye changed
+	 * since the last call.
+	 * 
 	 * @return the cache
 	 */
 	public BufferedImage getCache() {
-		if ( this.needsRedye ) {
-			if ( this.dye == null ) {
-				this.cache = ImageUtils.copy( this.source );
+		return getCache( new Rectangle( getWidth(), getHeight() ) );
+	}
+
+	/**
+	 * Returns the dyed image, first dyeing the out of date tiles of the source
+	 * that overlap the given region. Parts of the returned image outside the
+	 * region may still show an earlier dye.
+	 * 
+	 * @param region the part of the image that has to be up to date
+	 * @return the cache
+	 */
+	public BufferedImage getCache( Rectangle region ) {
+		Dye dye = this.dye == null ? NO_DYE : this.dye;
+
+		if ( DyeMetrics.isEnabled() ) {
+			DyeMetrics.cacheAccessed( DyeMetrics.Cache.IMAGE, this.source == null || !isRedyePending( region ) );
+		}
+
+		if ( this.cacheDye != null ) {
+			// Only the channels that changed have to be dyed again
+			dye.recolorChanged( this.channelMap, this.cacheDye, this.cache );
+			this.cacheDye = null;
+		}
+
+		if ( this.invalidTiles == 0 || this.source == null ) {
+			return this.cache;
+		}
+
+		if ( this.source.getColorModel() instanceof IndexColorModel || this.dyeCache != null ) {
+			// Dyed as a whole, either cheaply or by someone else
+			if ( this.dyeCache != null ) {
+				this.cache = this.dyeCache.recolor( dye, this.source );
 			} else {
-				this.cache = this.dye.recolor( this.source );
+				this.cache = dye.recolorIndexed( this.source );
+			}
+			this.cacheShared = true;
+
+			Arrays.fill( this.validTiles, true );
+			this.invalidTiles = 0;
+
+			return this.cache;
+		}
+
+		if ( this.cache == null ) {
+			this.cache = new BufferedImage( getWidth(), getHeight(), BufferedImage.TYPE_INT_ARGB );
+		}
+
+		Rectangle tiles = getTiles( region );
+
+		for ( int ty = tiles.y; ty < tiles.y + tiles.height; ty++ ) {
+			for ( int tx = tiles.x; tx < tiles.x + tiles.width; tx++ ) {
+				int i = ty * this.tilesX + tx;
+
+				if ( !this.validTiles[i] ) {
+					Rectangle tile = new Rectangle( tx * this.tileWidth, ty * this.tileHeight, this.tileWidth, this.tileHeight );
+
+					if ( this.channelMap != null ) {
+						dye.recolorMappedRegion( this.channelMap, this.cache, tile );
+					} else {
+						dye.recolorRegion( this.source, this.cache, tile );
+					}
+					this.validTiles[i] = true;
+					this.invalidTiles--;
+				}
 			}
 		}
+
 		return this.cache;
 	}
 
 	/**
+	 * Dyeing never changes the size, so this doesn't touch the cache.
+	 * 
 	 * @see org.apache.pivot.wtk.Visual#getWidth()
 	 */
 	@Override
 	public int getWidth() {
-		BufferedImage cache = getCache();
-		return cache == null ? 0 : cache.getWidth();
+		return this.source == null ? 0 : this.source.getWidth();
 	}
 
 	/**
+	 * Dyeing never changes the size, so this doesn't touch the cache.
+	 * 
 	 * @see org.apache.pivot.wtk.Visual#getHeight()
 	 */
 	@Override
 	public int getHeight() {
-		BufferedImage cache = getCache();
-		return cache == null ? 0 : cache.getHeight();
+		return this.source == null ? 0 : this.source.getHeight();
 	}
 
 	/**
+	 * Only the tiles inside the clip are dyed. A preview is scaled up to the
+	 * size of the image instead.
+	 * 
 	 * @see org.apache.pivot.wtk.Visual#paint(java.awt.Graphics2D)
 	 */
 	@Override
 	public void paint( Graphics2D graphics ) {
-		graphics.drawImage( getCache(), 0, 0, null );
+		if ( this.preview != null ) {
+			// Each preview pixel stands for a step by step block of the source
+			Graphics2D g = (Graphics2D) graphics.create();
+			g.clipRect( 0, 0, getWidth(), getHeight() );
+			g.setRenderingHint( RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR );
+			g.drawImage( this.preview, 0, 0, this.preview.getWidth() * this.previewStep, this.preview.getHeight() * this.previewStep, null );
+			g.dispose();
+			return;
+		}
+
+		Rectangle clip = graphics.getClipBounds();
+		if ( clip == null ) {
+			clip = new Rectangle( getWidth(), getHeight() );
+		}
+
+		graphics.drawImage( getCache( clip ), 0, 0, null );
 	}
 
 	/**
@@ -0,0 +1,229 @@
+/*
+ *  Copyright (C) 2013  Jared Adams
+ *
+ *  This file is part of ManaDye.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.manasource.pivot;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+import org.apache.pivot.wtk.media.Image;
+import org.apache.pivot.wtk.media.ImageListener;
+import org.manasource.util.Dye;
+import org.manasource.util.DyeChangeListener;
+
+/**
+ * A sprite sheet: a {@link DyeableImage} made of a grid of equally sized
+ * frames, numbered left to right, top to bottom. Frames are dyed the first
+ * time they are requested, and handed out as views of the dyed sheet.
+ */
+public class SpriteSheet implements DyeChangeListener {
+
+	/**
+	 * A Pivot {@link Image} showing a single frame. Its listeners are told
+	 * when the frame is redyed.
+	 */
+	public class Frame extends Image {
+
+		private final int index;
+
+		Frame( int index ) {
+			this.index = index;
+		}
+
+		/**
+		 * @return the index of the frame
+		 */
+		public int getIndex() {
+			return this.index;
+		}
+
+		@Override
+		public int getWidth() {
+			return SpriteSheet.this.frameWidth;
+		}
+
+		@Override
+		public int getHeight() {
+			return SpriteSheet.this.frameHeight;
+		}
+
+		@Override
+		public void paint( Graphics2D graphics ) {
+			graphics.drawImage( getFrame( this.index ), 0, 0, null );
+		}
+	}
+
+	private final DyeableImage image;
+
+	private final int frameWidth, frameHeight;
+
+	private final int columns, rows;
+
+	private final BufferedImage[] frames;
+
+	/**
+	 * The frame images handed out so far, to repaint when the dye changes.
+	 */
+	private final Frame[] frameImages;
+
+	/**
+	 * @param source the sheet
+	 * @param frameWidth the width of a frame
+	 * @param frameHeight the height of a frame
+	 */
+	public SpriteSheet( BufferedImage source, int frameWidth, int frameHeight ) {
+		this.image = new DyeableImage( source, frameWidth, frameHeight );
+		this.frameWidth = frameWidth;
+		this.frameHeight = frameHeight;
+
+		// Partial frames at the right and bottom edges are ignored
+		this.columns = source.getWidth() / frameWidth;
+		this.rows = source.getHeight() / frameHeight;
+		this.frames = new BufferedImage[this.columns * this.rows];
+		this.frameImages = new Frame[this.frames.length];
+
+		this.image.getDyeChangeListeners().add( this );
+	}
+
+	/**
+	 * @return the whole sheet
+	 */
+	public DyeableImage getImage() {
+		return this.image;
+	}
+
+	/**
+	 * @return the dye
+	 */
+	public Dye getDye() {
+		return this.image.getDye();
+	}
+
+	/**
+	 * @param dye the dye to set
+	 */
+	public void setDye( Dye dye ) {
+		this.image.setDye( dye );
+	}
+
+	/**
+	 * @return the frameWidth
+	 */
+	public int getFrameWidth() {
+		return this.frameWidth;
+	}
+
+	/**
+	 * @return the frameHeight
+	 */
+	public int getFrameHeight() {
+		return this.frameHeight;
+	}
+
+	/**
+	 * @return the number of frames in a row
+	 */
+	public int getColumns() {
+		return this.columns;
+	}
+
+	/**
+	 * @return the number of rows of frames
+	 */
+	public int getRows() {
+		return this.rows;
+	}
+
+	/**
+	 * @return the number of frames
+	 */
+	public int getFrameCount() {
+		return this.frames.length;
+	}
+
+	/**
+	 * Returns where a frame is on the sheet.
+	 * 
+	 * @param index the index of the frame
+	 * @return the frame's bounds
+	 */
+	public Rectangle getFrameBounds( int index ) {
+		if ( index < 0 || index >= this.frames.length ) {
+			throw new IndexOutOfBoundsException( "No frame " + index );
+		}
+
+		return new Rectangle( index % this.columns * this.frameWidth, index / this.columns * this.frameHeight, this.frameWidth, this.frameHeight );
+	}
+
+	/**
+	 * Returns a dyed frame, dyeing it first if needed. The frame shares its
+	 * pixels with the dyed sheet and must not be modified.
+	 * 
+	 * @param index the index of the frame
+	 * @return the dyed frame
+	 */
+	public BufferedImage getFrame( int index ) {
+		BufferedImage frame = this.frames[index];
+
+		if ( frame == null ) {
+			Rectangle bounds = getFrameBounds( index );
+			frame = this.image.getCache( bounds ).getSubimage( bounds.x, bounds.y, bounds.width, bounds.height );
+			this.frames[index] = frame;
+		}
+
+		return frame;
+	}
+
+	/**
+	 * Returns a Pivot {@link Image} that shows one frame with the current
+	 * dye. There is a single image per frame, which repaints whenever the
+	 * sheet's dye changes.
+	 * 
+	 * @param index the index of the frame
+	 * @return the frame image
+	 */
+	public Frame getFrameImage( int index ) {
+		getFrameBounds( index );
+
+		Frame frame = this.frameImages[index];
+		if ( frame == null ) {
+			frame = new Frame( index );
+			this.frameImages[index] = frame;
+		}
+
+		return frame;
+	}
+
+	@Override
+	public void dyeChanged( Object source, Dye newDye ) {
+		Arrays.fill( this.frames, null );
+
+		for ( Frame frame : this.frameImages ) {
+			if ( frame == null ) {
+				continue;
+			}
+
+			for ( ImageListener listener : frame.getImageListeners() ) {
+				listener.regionUpdated( frame, 0, 0, this.frameWidth, this.frameHeight );
+			}
+		}
+	}
+}
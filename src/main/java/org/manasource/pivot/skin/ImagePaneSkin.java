@@ -51,6 +51,7 @@ import org.apache.pivot.wtk.media.Image;
 import org.apache.pivot.wtk.media.Picture;
 import org.apache.pivot.wtk.skin.ContainerSkin;
 import org.manasource.dyetool.ImageFilter;
+import org.manasource.pivot.DyeWorker;
 import org.manasource.pivot.DyeableImage;
 import org.manasource.pivot.ImagePane;
 import org.manasource.pivot.ResourceKeyChangeListener;
@@ -76,6 +77,8 @@ public class ImagePaneSkin extends ContainerSkin implements DyeChangeListener, R
 
 	private DyeableImage image;
 
+	private final DyeWorker dyeWorker = new DyeWorker();
+
 	private final Action loadImage = new Action( true ) {
 
 		@Override
@@ -256,7 +259,7 @@ public class ImagePaneSkin extends ContainerSkin implements DyeChangeListener, R
 
 	void setFile( File file ) {
 		try {
-			setImage( ImageUtils.getImage( file ) );
+			setImage( ImageUtils.getImage( file, true ) );
 		} catch ( IOException e ) {
 			// TODO
 			e.printStackTrace();
@@ -265,6 +268,8 @@ public class ImagePaneSkin extends ContainerSkin implements DyeChangeListener, R
 	}
 
 	void setImage( BufferedImage image ) {
+		this.dyeWorker.cancel();
+
 		this.image = new DyeableImage( image );
 		this.image.setDye( getImagePane().getDye() );
 
@@ -341,7 +346,8 @@ public class ImagePaneSkin extends ContainerSkin implements DyeChangeListener, R
 	@Override
 	public void dyeChanged( Object source, Dye newDye ) {
 		if ( this.image != null ) {
-			this.image.setDye( newDye );
+			// Shows the old dye, or a preview of the new one, until it is ready
+			this.dyeWorker.submit( this.image, newDye );
 		}
 	}
 
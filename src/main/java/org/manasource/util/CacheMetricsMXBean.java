@@ -0,0 +1,45 @@
+/*
+ *  Copyright (C) 2013  Jared Adams
+ *
+ *  This file is part of ManaDye.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.manasource.util;
+
+/**
+ * The lookups {@link DyeMetrics} counted for one cache.
+ */
+public interface CacheMetricsMXBean {
+
+	/**
+	 * @return the number of lookups that found a dyed image
+	 */
+	public long getHits();
+
+	/**
+	 * @return the number of lookups that had to dye
+	 */
+	public long getMisses();
+
+	/**
+	 * @return the fraction of lookups that were hits, or 0 if there were none
+	 */
+	public double getHitRatio();
+
+	/**
+	 * Sets the counts back to zero.
+	 */
+	public void reset();
+}
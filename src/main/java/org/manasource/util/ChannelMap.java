@@ -0,0 +1,151 @@
+/*
+ *  Copyright (C) 2013  Jared Adams
+ *
+ *  This file is part of ManaDye.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.manasource.util;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+import org.manasource.util.Dye.Channel;
+
+/**
+ * An image analysed for dyeing: the channel and intensity of every pixel, one
+ * row after another. Dyeing from a channel map is a pure table lookup, see
+ * {@link Dye#recolorMapped(ChannelMap)}. The map keeps the pixels of the
+ * source image (without copying them if possible), so the source must not
+ * change afterwards.
+ */
+public class ChannelMap {
+
+	private final int width, height;
+
+	final int[] pixels;
+
+	final byte[] channels;
+
+	final byte[] intensities;
+
+	/**
+	 * The pixel positions grouped by channel, built when first needed. The
+	 * pixels of channel <code>c</code> are
+	 * <code>index[offsets[c]]</code> up to
+	 * <code>index[offsets[c + 1] - 1]</code>, in ascending order.
+	 */
+	int[] index, offsets;
+
+	private ChannelMap( int width, int height, int[] pixels ) {
+		this.width = width;
+		this.height = height;
+		this.pixels = pixels;
+
+		int length = width * height;
+		this.channels = new byte[length];
+		this.intensities = new byte[length];
+
+		for ( int i = 0; i < length; i++ ) {
+			int argb = pixels[i];
+			this.channels[i] = (byte) Channel.classify( argb );
+			this.intensities[i] = (byte) Channel.getIntensity( argb );
+		}
+	}
+
+	/**
+	 * Analyses an image.
+	 * 
+	 * @param img the image
+	 * @return the channel map of the image
+	 */
+	public static ChannelMap of( BufferedImage img ) {
+		return new ChannelMap( img.getWidth(), img.getHeight(), ImageUtils.getPixels( img ) );
+	}
+
+	/**
+	 * @return the width of the image
+	 */
+	public int getWidth() {
+		return this.width;
+	}
+
+	/**
+	 * @return the height of the image
+	 */
+	public int getHeight() {
+		return this.height;
+	}
+
+	/**
+	 * Builds the per channel pixel index if it doesn't exist yet.
+	 */
+	synchronized void buildIndex() {
+		if ( this.index != null ) {
+			return;
+		}
+
+		int[] offsets = new int[Channel.VALUES.length + 1];
+		for ( byte c : this.channels ) {
+			offsets[c + 1]++;
+		}
+		for ( int c = 0; c < Channel.VALUES.length; c++ ) {
+			offsets[c + 1] += offsets[c];
+		}
+
+		int[] next = Arrays.copyOf( offsets, Channel.VALUES.length );
+		int[] index = new int[this.channels.length];
+		for ( int i = 0; i < this.channels.length; i++ ) {
+			index[next[this.channels[i]]++] = i;
+		}
+
+		this.offsets = offsets;
+		this.index = index;
+	}
+
+	/**
+	 * Returns the number of pixels of a channel.
+	 * 
+	 * @param channel the channel
+	 * @return the number of pixels that belong to the channel
+	 */
+	public int getCount( Channel channel ) {
+		buildIndex();
+
+		return this.offsets[channel.ordinal() + 1] - this.offsets[channel.ordinal()];
+	}
+
+	/**
+	 * Returns the channel of a pixel.
+	 * 
+	 * @param x the x coordinate
+	 * @param y the y coordinate
+	 * @return the channel of the pixel
+	 */
+	public Channel getChannel( int x, int y ) {
+		return Channel.VALUES[this.channels[y * this.width + x]];
+	}
+
+	/**
+	 * Returns the intensity of a pixel.
+	 * 
+	 * @param x the x coordinate
+	 * @param y the y coordinate
+	 * @return the intensity of the pixel
+	 */
+	public int getIntensity( int x, int y ) {
+		return this.intensities[y * this.width + x] & 0xff;
+	}
+}
@@ -22,11 +22,20 @@
 package org.manasource.util;
 
 import java.awt.Color;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
 import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Vector;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * The Dye class is used to re-color images. For a description of the dyeing
@@ -77,7 +86,13 @@ public class Dye implements Cloneable {
 		 * @see cast(java.lang.String)
 		 */
 		public static Channel cast( char channel ) {
-			return cast( String.format( "%c", channel ) );
+			for ( Channel c : VALUES ) {
+				if ( c != NONE && c.name().charAt( 0 ) == channel ) {
+					return c;
+				}
+			}
+
+			return NONE;
 		}
 
 		/**
@@ -88,11 +103,71 @@ public class Dye implements Cloneable {
 		 *         be recolored) and it's intensity as the second
 		 */
 		public static Object[] getChannel( Color in ) {
-			int r = in.getRed(), g = in.getGreen(), b = in.getBlue();
+			int rgb = in.getRGB();
+			return new Object[] { getChannel( rgb ), getIntensity( rgb ) };
+		}
+
+		/**
+		 * Returns the channel of the given packed color. The alpha bits are
+		 * ignored.
+		 * 
+		 * @param argb the packed color
+		 * @return the color's channel, or NONE if it can't be recolored
+		 */
+		public static Channel getChannel( int argb ) {
+			return VALUES[classify( argb )];
+		}
+
+		/**
+		 * Returns the intensity of the given packed color, which is the value
+		 * of its largest component. The alpha bits are ignored.
+		 * 
+		 * @param argb the packed color
+		 * @return the color's intensity
+		 */
+		public static int getIntensity( int argb ) {
+			int r = ( argb >> 16 ) & 0xff, g = ( argb >> 8 ) & 0xff, b = argb & 0xff;
+			return Math.max( r, Math.max( g, b ) );
+		}
+
+		/**
+		 * Classifies a packed color without allocating. Results are kept in a
+		 * small cache shared by all dyes, as images tend to use only a few
+		 * distinct colors.
+		 * 
+		 * @param argb the packed color
+		 * @return the ordinal of the color's channel
+		 */
+		static int classify( int argb ) {
+			int rgb = argb & 0xffffff;
+			int slot = ( rgb * 0x9e3779b1 ) >>> ( 32 - CACHE_BITS );
+			int entry = CACHE[slot];
+
+			// Entries are the color shifted above the ordinal plus one, so an
+			// empty slot never matches
+			if ( ( entry >>> 4 ) == rgb && entry != 0 ) {
+				return ( entry & 0xf ) - 1;
+			}
+
+			int ordinal = compute( rgb );
+			CACHE[slot] = ( rgb << 4 ) | ( ordinal + 1 );
+
+			return ordinal;
+		}
+
+		/**
+		 * Classifies a packed color. Only the channel is worth caching, the
+		 * intensity of any color is simply its largest component.
+		 * 
+		 * @param argb the packed color
+		 * @return the ordinal of the color's channel
+		 */
+		static int compute( int argb ) {
+			int r = ( argb >> 16 ) & 0xff, g = ( argb >> 8 ) & 0xff, b = argb & 0xff;
 			int cmax = Math.max( r, Math.max( g, b ) );
 			if ( cmax == 0 ) {
 				// Black
-				return new Object[] { NONE, 0 };
+				return NONE_ORDINAL;
 			}
 
 			int cmin = Math.min( r, Math.min( g, b ) );
@@ -100,48 +175,71 @@ public class Dye implements Cloneable {
 
 			if ( cmin != cmax && ( cmin != 0 || ( intensity != cmax && intensity != 2 * cmax ) ) ) {
 				// not pure
-				return new Object[] { NONE, cmax };
+				return NONE_ORDINAL;
 			}
 
 			int i = ( r != 0 ? 1 : 0 ) | ( ( g != 0 ? 1 : 0 ) << 1 ) | ( ( b != 0 ? 1 : 0 ) << 2 );
 
-			return new Object[] { Channel.values()[i - 1], cmax };
+			return i - 1;
 		}
-	}
 
-	/**
-	 * An individual color palette.
-	 */
-	public static class Palette implements Comparable< Palette > {
+		/**
+		 * Classifies a run of packed colors in place, without branches or
+		 * lookups, so the JIT can compile the loop to SIMD instructions. Each
+		 * color is replaced by its channel ordinal shifted left by 8, or'ed
+		 * with its intensity, which indexes {@link Dye#getFlatTable()}.
+		 * <p>
+		 * C2 only vectorizes this loop when the colors start at the same index
+		 * as the codes, hence the copy into a block first.
+		 * 
+		 * @param colors the packed colors, replaced by their codes
+		 * @param length the number of colors to classify, from index 0
+		 */
+		static void classify( int[] colors, int length ) {
+			for ( int i = 0; i < length; i++ ) {
+				int rgb = colors[i] & 0xffffff;
+				int r = rgb >>> 16, g = ( rgb >>> 8 ) & 0xff, b = rgb & 0xff;
 
-		private static List< Color > getList( String data ) {
-			if ( data.length() == 0 ) {
-				return new Vector< Color >( 0 );
-			}
+				// max( r, g, b ) without Math.max, which C2 won't vectorize
+				int d = r - g;
+				int max = r - ( d & ( d >> 31 ) );
+				d = max - b;
+				max -= d & ( d >> 31 );
 
-			if ( data.charAt( 0 ) != '#' ) {
-				return new Vector< Color >( 0 );
-			}
+				// 0x01 in every byte that isn't zero, then 0xff in those bytes
+				int nonzero = ( ( rgb | ( ( rgb & 0x7f7f7f ) + 0x7f7f7f ) ) >>> 7 ) & 0x010101;
+				int mask = ( nonzero << 8 ) - nonzero;
 
-			String[] colorStrings = data.split( "," );
-			Vector< Color > colors = new Vector< Color >();
+				// Pure colors have the maximum in every byte that isn't zero
+				int impure = ( ( ( ( max * 0x010101 ) & mask ) ^ rgb ) + 0xffffff ) >>> 24;
 
-			for ( String color : colorStrings ) {
-				try {
-					// Color.decode expects a pound sign in front of hex code
-					if ( color.charAt( 0 ) != '#' ) {
-						color = "#" + color;
-					}
-					Color c = Color.decode( color );
-					colors.add( c );
-				} catch ( NumberFormatException nfe ) {
-					// Nothing to do here
-				}
-			}
+				// Red, green and blue bits as in compute( int ), black gives -1
+				int ordinal = ( ( ( nonzero >>> 16 ) | ( nonzero >>> 7 ) | ( nonzero << 2 ) ) & 7 ) - 1;
 
-			return colors;
+				// Impure colors and black are NONE, which is 7
+				colors[i] = ( ( ( ordinal | -impure ) & 7 ) << 8 ) | max;
+			}
 		}
 
+		// values() clones its array on every call
+		static final Channel[] VALUES = values();
+
+		static final int NONE_ORDINAL = NONE.ordinal();
+
+		private static final int CACHE_BITS = 12;
+
+		/**
+		 * Direct-mapped classification cache. Each int is written whole, so
+		 * threads racing on a slot at worst recompute a result.
+		 */
+		private static final int[] CACHE = new int[1 << CACHE_BITS];
+	}
+
+	/**
+	 * An individual color palette.
+	 */
+	public static class Palette implements Comparable< Palette > {
+
 		private final Color[] colors;
 
 		/**
@@ -154,7 +252,7 @@ public class Dye implements Cloneable {
 				throw new NullPointerException( "colors cannot be null" );
 			}
 
-			this.colors = colors;
+			this.colors = colors.clone();
 		}
 
 		/**
@@ -172,7 +270,7 @@ public class Dye implements Cloneable {
 		 * @param data the palette data
 		 */
 		public Palette( String data ) {
-			this( getList( data ) );
+			this( DyeParser.colors( data, 0, data.length() ) );
 		}
 
 		/**
@@ -184,11 +282,27 @@ public class Dye implements Cloneable {
 		 *         <code>null</code> if there are no colors to use
 		 */
 		public Color getColor( int intensity, int alpha ) {
+			int rgb = getRGB( intensity );
+			if ( rgb == -1 ) {
+				return null;
+			}
+
+			return new Color( ( alpha << 24 ) | rgb, true );
+		}
+
+		/**
+		 * Converts the given intensity to it's corresponding packed RGB value.
+		 * 
+		 * @param intensity the requested intensity
+		 * @return the RGB value (with no alpha bits set) that corresponds to
+		 *         the given intensity or -1 if there are no colors to use
+		 */
+		public int getRGB( int intensity ) {
 			if ( intensity == 0 ) {
-				return new Color( 0, 0, 0, alpha );
+				return 0;
 			}
 			if ( this.colors.length == 0 ) {
-				return null;
+				return -1;
 			}
 
 			int j = intensity * this.colors.length;
@@ -201,7 +315,7 @@ public class Dye implements Cloneable {
 			int r2 = this.colors[j].getRed(), g2 = this.colors[j].getGreen(), b2 = this.colors[j].getBlue();
 
 			if ( t == 0 ) {
-				return new Color( r2, g2, b2, alpha ); // Exact color
+				return ( r2 << 16 ) | ( g2 << 8 ) | b2; // Exact color
 			}
 
 			// Get the previous color in the palette.
@@ -216,7 +330,7 @@ public class Dye implements Cloneable {
 			// Perform a linear interpolation
 			int r = ( ( 255 - t ) * r1 + t * r2 ) / 255, g = ( ( 255 - t ) * g1 + t * g2 ) / 255, b = ( ( 255 - t ) * b1 + t * b2 ) / 255;
 
-			return new Color( r, g, b, alpha );
+			return ( r << 16 ) | ( g << 8 ) | b;
 		}
 
 		/**
@@ -232,12 +346,28 @@ public class Dye implements Cloneable {
 		}
 
 		/**
-		 * Returns the internal list of colors used by this palette.
+		 * Computes {@link #getRGB(int)} for every possible intensity.
 		 * 
-		 * @return the array of colors used b this palette
+		 * @return a 256 entry table from intensity to packed RGB value
+		 */
+		int[] compile() {
+			int[] table = new int[256];
+
+			for ( int i = 0; i < table.length; i++ ) {
+				table[i] = getRGB( i );
+			}
+
+			return table;
+		}
+
+		/**
+		 * Returns the list of colors used by this palette. Palettes are
+		 * immutable, so this is a copy.
+		 * 
+		 * @return the array of colors used by this palette
 		 */
 		public Color[] getColors() {
-			return this.colors;
+			return this.colors.clone();
 		}
 
 		@Override
@@ -259,6 +389,17 @@ public class Dye implements Cloneable {
 			return compareTo( o ) == 0;
 		}
 
+		@Override
+		public int hashCode() {
+			int hash = 1;
+
+			for ( Color color : this.colors ) {
+				hash = 31 * hash + color.getRGB();
+			}
+
+			return hash;
+		}
+
 		@Override
 		public int compareTo( Palette o ) {
 			int a = 0, b = 0;
@@ -282,8 +423,100 @@ public class Dye implements Cloneable {
 		}
 	}
 
+	/**
+	 * Dyes a range of pixels, splitting it in half until it is small enough
+	 * to do directly.
+	 */
+	private static class RecolorTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Dye dye;
+
+		private final int[] src, dest;
+
+		private final int srcPos, destPos, length;
+
+		RecolorTask( Dye dye, int[] src, int srcPos, int[] dest, int destPos, int length ) {
+			this.dye = dye;
+			this.src = src;
+			this.srcPos = srcPos;
+			this.dest = dest;
+			this.destPos = destPos;
+			this.length = length;
+		}
+
+		@Override
+		protected void compute() {
+			if ( this.length <= TASK_PIXELS ) {
+				this.dye.recolor( this.src, this.srcPos, this.dest, this.destPos, this.length );
+				return;
+			}
+
+			int half = this.length / 2;
+			invokeAll( new RecolorTask( this.dye, this.src, this.srcPos, this.dest, this.destPos, half ), new RecolorTask( this.dye, this.src, this.srcPos + half, this.dest, this.destPos + half, this.length - half ) );
+		}
+	}
+
+	/**
+	 * Images with fewer pixels than this are always dyed on the calling
+	 * thread.
+	 */
+	public static final int PARALLEL_THRESHOLD = 512 * 512;
+
+	/**
+	 * The most pixels a single parallel task will dye.
+	 */
+	static final int TASK_PIXELS = 64 * 1024;
+
+	/**
+	 * The number of pixels the blocked kernel and
+	 * {@link #recolorAll(int[], int, List, int[][], int, int)} classify at
+	 * once before dyeing them.
+	 */
+	static final int BLOCK_PIXELS = 4 * 1024;
+
+	/**
+	 * Whether to dye with the blocked kernel, which classifies a block of
+	 * pixels at once with {@link Channel#classify(int[], int)} before looking
+	 * them up. Chosen with the <code>manadye.kernel</code> system property,
+	 * <code>blocked</code> or the default <code>scalar</code>. The blocked
+	 * kernel is faster for images with many distinct colors when the JIT
+	 * vectorizes it, the scalar one for images of long runs of one color.
+	 */
+	static final boolean BLOCKED_KERNEL = "blocked".equals( System.getProperty( "manadye.kernel" ) );
+
+	/**
+	 * The most descriptions {@link #valueOf(String)} remembers. The least
+	 * recently used ones are forgotten first.
+	 */
+	private static final int MAX_INTERNED = 4096;
+
+	private static final LinkedHashMap< String, Dye > INTERNED = new LinkedHashMap< String, Dye >( 16, 0.75f, true ) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry( Map.Entry< String, Dye > eldest ) {
+			return size() > MAX_INTERNED;
+		}
+	};
+
 	private final EnumMap< Channel, Palette > palettes = new EnumMap< Channel, Palette >( Channel.class );
 
+	/**
+	 * The compiled palettes, indexed by channel ordinal. Channels without a
+	 * palette have no table.
+	 */
+	private final int[][] tables = new int[Channel.VALUES.length][];
+
+	/**
+	 * The compiled palettes in a single table indexed by channel ordinal
+	 * shifted left by 8 and or'ed with the intensity, built when first
+	 * needed. Colors that aren't dyed map to -1.
+	 */
+	private volatile int[] flatTable;
+
 	/**
 	 * Builds a dye from the given palette information.
 	 * 
@@ -295,6 +528,10 @@ public class Dye implements Cloneable {
 		}
 
 		this.palettes.putAll( palettes );
+
+		for ( Map.Entry< Channel, Palette > entry : this.palettes.entrySet() ) {
+			this.tables[entry.getKey().ordinal()] = entry.getValue().compile();
+		}
 	}
 
 	/**
@@ -306,6 +543,72 @@ public class Dye implements Cloneable {
 		this( parsePalettes( desc ) );
 	}
 
+	/**
+	 * Returns the dye for the given palette description. Dyes are immutable,
+	 * so identical descriptions share a single instance instead of being
+	 * parsed again.
+	 * 
+	 * @param desc the description of the palettes
+	 * @return the dye
+	 * @throws IllegalArgumentException if the description is malformed
+	 */
+	public static Dye valueOf( String desc ) {
+		Dye dye = interned( desc );
+
+		if ( dye == null ) {
+			dye = intern( desc, new Dye( desc ) );
+		}
+
+		return dye;
+	}
+
+	/**
+	 * Returns the dye for the given palette description like
+	 * {@link #valueOf(String)}, but doesn't throw for malformed descriptions.
+	 * Meant for descriptions that are still being typed.
+	 * 
+	 * @param desc the description of the palettes
+	 * @return the dye, or <code>null</code> if the description is malformed
+	 */
+	public static Dye tryParse( String desc ) {
+		if ( desc == null ) {
+			return null;
+		}
+
+		Dye dye = interned( desc );
+
+		if ( dye == null ) {
+			EnumMap< Channel, Palette > palettes = new EnumMap< Channel, Palette >( Channel.class );
+			if ( !DyeParser.tryParsePalettes( desc, palettes, new LinkedList< Channel >() ) ) {
+				return null;
+			}
+
+			dye = intern( desc, new Dye( palettes ) );
+		}
+
+		return dye;
+	}
+
+	private static Dye interned( String desc ) {
+		synchronized ( INTERNED ) {
+			return INTERNED.get( desc );
+		}
+	}
+
+	private static Dye intern( String desc, Dye dye ) {
+		synchronized ( INTERNED ) {
+			// Another thread may have parsed the same description meanwhile
+			Dye prev = INTERNED.get( desc );
+
+			if ( prev != null ) {
+				return prev;
+			}
+
+			INTERNED.put( desc, dye );
+			return dye;
+		}
+	}
+
 	/**
 	 * Dye an individual color.
 	 * 
@@ -313,23 +616,32 @@ public class Dye implements Cloneable {
 	 * @return the color dyed (or untouched if it cannot be dyed)
 	 */
 	public Color update( Color in ) {
-		Object[] arr = Channel.getChannel( in );
-		Channel channel = (Channel) arr[0];
-		int intensity = (Integer) arr[1];
+		int argb = in.getRGB();
+		int ret = update( argb );
 
-		Palette p = this.palettes.get( channel );
+		return ret == argb ? in : new Color( ret, true );
+	}
 
-		if ( p == null ) {
-			return in;
+	/**
+	 * Dye an individual packed ARGB color.
+	 * 
+	 * @param argb the color to dye
+	 * @return the color dyed (or untouched if it cannot be dyed)
+	 */
+	public int update( int argb ) {
+		int[] table = this.tables[Channel.classify( argb )];
+
+		if ( table == null ) {
+			return argb;
 		}
 
-		Color ret = p.getColor( intensity, in.getAlpha() );
+		int rgb = table[Channel.getIntensity( argb )];
 
-		if ( ret == null ) {
-			ret = in;
+		if ( rgb == -1 ) {
+			return argb;
 		}
 
-		return ret;
+		return ( argb & 0xff000000 ) | rgb;
 	}
 
 	/**
@@ -342,25 +654,704 @@ public class Dye implements Cloneable {
 		if ( img == null ) {
 			return null;
 		}
+		if ( img.getColorModel() instanceof IndexColorModel ) {
+			return recolorIndexed( img );
+		}
+		long start = DyeMetrics.start();
+		int w = img.getWidth();
+		int h = img.getHeight();
+
+		BufferedImage ret = new BufferedImage( w, h, BufferedImage.TYPE_INT_ARGB );
+		int[] src = ImageUtils.getPixels( img );
+
+		recolor( src, 0, ImageUtils.getData( ret ), 0, w * h );
+
+		DyeMetrics.end( DyeMetrics.Operation.RECOLOR, start, (long) w * h, DyeMetrics.getBytes( ret ) + getCopiedBytes( img, src ) );
+		return ret;
+	}
+
+	/**
+	 * Dye an entire image into an existing image of the same size, such as
+	 * one from an {@link ImagePool}. The destination may be the source
+	 * itself. Dyeing is fastest when the destination is a
+	 * <code>TYPE_INT_ARGB</code> image (see
+	 * {@link ImageUtils#getData(BufferedImage)}), as nothing is allocated.
+	 * 
+	 * @param img the image to dye
+	 * @param dest the image to store the result in, which can't be indexed
+	 * @return <code>dest</code>
+	 * @throws IllegalArgumentException if the sizes differ or
+	 *             <code>dest</code> is indexed
+	 */
+	public BufferedImage recolorInto( BufferedImage img, BufferedImage dest ) {
+		long start = DyeMetrics.start();
+		int w = img.getWidth();
+		int h = img.getHeight();
+
+		if ( dest.getWidth() != w || dest.getHeight() != h ) {
+			throw new IllegalArgumentException( "dest must be " + w + "x" + h );
+		}
+		if ( dest.getColorModel() instanceof IndexColorModel ) {
+			throw new IllegalArgumentException( "dest cannot be indexed" );
+		}
+
+		int[] src = ImageUtils.getPixels( img );
+		int[] data = ImageUtils.getData( dest );
+		long bytes = getCopiedBytes( img, src );
+
+		if ( data != null ) {
+			recolor( src, 0, data, 0, w * h );
+		} else {
+			// Don't dye img's own pixels unless it is dest
+			if ( bytes == 0 ) {
+				src = src.clone();
+				bytes = src.length * 4L;
+			}
+			recolor( src, 0, src, 0, w * h );
+			dest.setRGB( 0, 0, w, h, src, 0, w );
+		}
+
+		DyeMetrics.end( DyeMetrics.Operation.RECOLOR, start, (long) w * h, bytes );
+		return dest;
+	}
+
+	/**
+	 * Dye part of an image into the same part of an existing image of the
+	 * same size. The rest of the destination is left alone. The destination
+	 * may be the source itself.
+	 * 
+	 * @param img the image to dye
+	 * @param dest the image to store the result in, which can't be indexed
+	 * @param region the part to dye, which is clipped to the image
+	 * @return <code>dest</code>
+	 * @throws IllegalArgumentException if the sizes differ or
+	 *             <code>dest</code> is indexed
+	 */
+	public BufferedImage recolorRegion( BufferedImage img, BufferedImage dest, Rectangle region ) {
+		long start = DyeMetrics.start();
+		int w = img.getWidth();
+		int h = img.getHeight();
+
+		if ( dest.getWidth() != w || dest.getHeight() != h ) {
+			throw new IllegalArgumentException( "dest must be " + w + "x" + h );
+		}
+		if ( dest.getColorModel() instanceof IndexColorModel ) {
+			throw new IllegalArgumentException( "dest cannot be indexed" );
+		}
+
+		Rectangle r = region.intersection( new Rectangle( w, h ) );
+		if ( r.isEmpty() ) {
+			return dest;
+		}
+
+		int[] src = ImageUtils.getData( img );
+		int[] data = ImageUtils.getData( dest );
+		long bytes = 0;
+
+		if ( src != null && data != null ) {
+			for ( int y = r.y; y < r.y + r.height; y++ ) {
+				recolor( src, y * w + r.x, data, y * w + r.x, r.width );
+			}
+		} else {
+			int[] buffer = img.getRGB( r.x, r.y, r.width, r.height, null, 0, r.width );
+			recolor( buffer, 0, buffer, 0, buffer.length );
+			dest.setRGB( r.x, r.y, r.width, r.height, buffer, 0, r.width );
+			bytes = buffer.length * 4L;
+		}
+
+		DyeMetrics.end( DyeMetrics.Operation.RECOLOR, start, (long) r.width * r.height, bytes );
+		return dest;
+	}
+
+	/**
+	 * Dye several parts of an image into an existing image of the same size.
+	 * 
+	 * @see #recolorRegion(BufferedImage, BufferedImage, Rectangle)
+	 * @param img the image to dye
+	 * @param dest the image to store the result in, which can't be indexed
+	 * @param regions the parts to dye
+	 * @return <code>dest</code>
+	 */
+	public BufferedImage recolorRegions( BufferedImage img, BufferedImage dest, List< Rectangle > regions ) {
+		for ( Rectangle region : regions ) {
+			recolorRegion( img, dest, region );
+		}
+
+		return dest;
+	}
+
+	/**
+	 * @param img an image
+	 * @param pixels what {@link ImageUtils#getPixels(BufferedImage)} returned
+	 *            for it
+	 * @return the bytes allocated for the pixels, if they are a copy
+	 */
+	private static long getCopiedBytes( BufferedImage img, int[] pixels ) {
+		return pixels == ImageUtils.getData( img ) ? 0 : pixels.length * 4L;
+	}
+
+	/**
+	 * Dye an image in place.
+	 * 
+	 * @param img the image to dye, which can't be indexed
+	 * @return <code>img</code>
+	 * @throws IllegalArgumentException if <code>img</code> is indexed
+	 */
+	public BufferedImage recolorInPlace( BufferedImage img ) {
+		return recolorInto( img, img );
+	}
+
+	/**
+	 * Dye an indexed image by dyeing its color table. The returned image
+	 * shares the pixel data of <code>img</code>, so the cost doesn't depend on
+	 * the size of the image.
+	 * 
+	 * @param img the image to dye, which must use an {@link IndexColorModel}
+	 * @return a new image that is the dyed version of <code>img</code>
+	 */
+	public BufferedImage recolorIndexed( BufferedImage img ) {
+		long start = DyeMetrics.start();
+		IndexColorModel cm = (IndexColorModel) img.getColorModel();
+
+		int[] lut = new int[cm.getMapSize()];
+		cm.getRGBs( lut );
+		recolor( lut, 0, lut, 0, lut.length );
+
+		IndexColorModel dyed = new IndexColorModel( cm.getPixelSize(), lut.length, lut, 0, true, -1, cm.getTransferType() );
+
+		// Only the color table is dyed and copied
+		DyeMetrics.end( DyeMetrics.Operation.RECOLOR, start, lut.length, lut.length * 4L );
+		return new BufferedImage( dyed, img.getRaster(), false, null );
+	}
+
+	/**
+	 * Dye an entire image, splitting the work across the given pool. Images
+	 * smaller than {@link #PARALLEL_THRESHOLD} are dyed on the calling thread.
+	 * The result is the same as {@link #recolor(BufferedImage)}.
+	 * 
+	 * @param img the image to dye
+	 * @param pool the pool to use, or <code>null</code> to dye on the calling
+	 *            thread
+	 * @return a new image that is the dyed version of <code>img</code>
+	 */
+	public BufferedImage recolor( BufferedImage img, ForkJoinPool pool ) {
+		if ( img == null ) {
+			return null;
+		}
+		if ( img.getColorModel() instanceof IndexColorModel ) {
+			return recolorIndexed( img );
+		}
+		long start = DyeMetrics.start();
 		int w = img.getWidth();
 		int h = img.getHeight();
 
 		BufferedImage ret = new BufferedImage( w, h, BufferedImage.TYPE_INT_ARGB );
+		int[] src = ImageUtils.getPixels( img );
+
+		recolor( src, 0, ImageUtils.getData( ret ), 0, w * h, pool );
+
+		DyeMetrics.end( DyeMetrics.Operation.RECOLOR, start, (long) w * h, DyeMetrics.getBytes( ret ) + getCopiedBytes( img, src ) );
+		return ret;
+	}
+
+	/**
+	 * Dye a run of packed ARGB pixels, splitting the work across the given
+	 * pool. Runs shorter than {@link #PARALLEL_THRESHOLD} are dyed on the
+	 * calling thread.
+	 * 
+	 * @param src the source pixels
+	 * @param srcPos the first source pixel to dye
+	 * @param dest the destination pixels
+	 * @param destPos where to store the first dyed pixel
+	 * @param length the number of pixels to dye
+	 * @param pool the pool to use, or <code>null</code> to dye on the calling
+	 *            thread
+	 */
+	public void recolor( int[] src, int srcPos, int[] dest, int destPos, int length, ForkJoinPool pool ) {
+		if ( pool == null || length < PARALLEL_THRESHOLD ) {
+			recolor( src, srcPos, dest, destPos, length );
+		} else {
+			pool.invoke( new RecolorTask( this, src, srcPos, dest, destPos, length ) );
+		}
+	}
+
+	/**
+	 * Dye a run of packed ARGB pixels. The source and destination may be the
+	 * same array.
+	 * 
+	 * @param src the source pixels
+	 * @param srcPos the first source pixel to dye
+	 * @param dest the destination pixels
+	 * @param destPos where to store the first dyed pixel
+	 * @param length the number of pixels to dye
+	 */
+	public void recolor( int[] src, int srcPos, int[] dest, int destPos, int length ) {
+		if ( length <= 0 ) {
+			return;
+		}
+		if ( BLOCKED_KERNEL ) {
+			recolorBlocked( src, srcPos, dest, destPos, length );
+			return;
+		}
+
+		// Sprites are mostly runs of one color, so only dye when it changes
+		int last = src[srcPos];
+		int dyed = update( last );
+
+		for ( int i = 0; i < length; i++ ) {
+			int argb = src[srcPos + i];
+
+			if ( argb != last ) {
+				last = argb;
+				dyed = update( argb );
+			}
+
+			dest[destPos + i] = dyed;
+		}
+	}
+
+	/**
+	 * The blocked kernel, see {@link #BLOCKED_KERNEL}.
+	 */
+	void recolorBlocked( int[] src, int srcPos, int[] dest, int destPos, int length ) {
+		int[] table = getFlatTable();
+		int[] codes = new int[Math.min( length, BLOCK_PIXELS )];
+
+		for ( int from = 0; from < length; from += BLOCK_PIXELS ) {
+			int count = Math.min( BLOCK_PIXELS, length - from );
+
+			System.arraycopy( src, srcPos + from, codes, 0, count );
+			Channel.classify( codes, count );
+
+			for ( int i = 0; i < count; i++ ) {
+				int argb = src[srcPos + from + i];
+				int rgb = table[codes[i]];
+
+				dest[destPos + from + i] = rgb == -1 ? argb : ( argb & 0xff000000 ) | rgb;
+			}
+		}
+	}
+
+	/**
+	 * @return the compiled palettes as a single table, see
+	 *         {@link #flatTable}
+	 */
+	int[] getFlatTable() {
+		int[] ret = this.flatTable;
+
+		if ( ret == null ) {
+			// Racing threads at worst build identical tables
+			ret = new int[Channel.VALUES.length << 8];
+
+			for ( int c = 0; c < this.tables.length; c++ ) {
+				if ( this.tables[c] == null ) {
+					Arrays.fill( ret, c << 8, ( c + 1 ) << 8, -1 );
+				} else {
+					System.arraycopy( this.tables[c], 0, ret, c << 8, 256 );
+				}
+			}
+
+			this.flatTable = ret;
+		}
+
+		return ret;
+	}
+
+	/**
+	 * Dye an image with several dyes at once. Every pixel is classified once
+	 * for all the dyes, which is much cheaper than dyeing the image once per
+	 * dye when there are many of them.
+	 * 
+	 * @param img the image to dye
+	 * @param dyes the dyes to apply
+	 * @return a new image per dye, in the same order
+	 */
+	public static BufferedImage[] recolorAll( BufferedImage img, List< Dye > dyes ) {
+		BufferedImage[] ret = new BufferedImage[dyes.size()];
+
+		if ( img.getColorModel() instanceof IndexColorModel ) {
+			for ( int k = 0; k < ret.length; k++ ) {
+				ret[k] = dyes.get( k ).recolorIndexed( img );
+			}
+			return ret;
+		}
+
+		long start = DyeMetrics.start();
+		int w = img.getWidth();
+		int h = img.getHeight();
+		int[][] dest = new int[ret.length][];
+
+		for ( int k = 0; k < ret.length; k++ ) {
+			ret[k] = new BufferedImage( w, h, BufferedImage.TYPE_INT_ARGB );
+			dest[k] = ImageUtils.getData( ret[k] );
+		}
+
+		int[] src = ImageUtils.getPixels( img );
+
+		recolorAll( src, 0, dyes, dest, 0, w * h );
+
+		DyeMetrics.end( DyeMetrics.Operation.RECOLOR, start, (long) w * h * ret.length, (long) w * h * 4 * ret.length + getCopiedBytes( img, src ) );
+		return ret;
+	}
+
+	/**
+	 * Dye a run of packed ARGB pixels with several dyes at once. The pixels
+	 * are classified a block at a time, and each block is dyed with every dye
+	 * while it is still in the CPU cache.
+	 * 
+	 * @param src the source pixels
+	 * @param srcPos the first source pixel to dye
+	 * @param dyes the dyes to apply
+	 * @param dest the destination pixels, one array per dye
+	 * @param destPos where to store the first dyed pixel
+	 * @param length the number of pixels to dye
+	 */
+	public static void recolorAll( int[] src, int srcPos, List< Dye > dyes, int[][] dest, int destPos, int length ) {
+		int n = dyes.size();
+
+		if ( n == 1 ) {
+			dyes.get( 0 ).recolor( src, srcPos, dest[0], destPos, length );
+			return;
+		}
+
+		// One table per dye, indexed by channel and intensity together
+		int[][] flat = new int[n][];
+		for ( int k = 0; k < n; k++ ) {
+			flat[k] = dyes.get( k ).getFlatTable();
+		}
+
+		int[] codes = new int[Math.min( length, BLOCK_PIXELS )];
+		int last = 0, code = 0;
+		boolean first = true;
+
+		for ( int from = 0; from < length; from += BLOCK_PIXELS ) {
+			int count = Math.min( BLOCK_PIXELS, length - from );
+
+			if ( BLOCKED_KERNEL ) {
+				System.arraycopy( src, srcPos + from, codes, 0, count );
+				Channel.classify( codes, count );
+			} else {
+				for ( int i = 0; i < count; i++ ) {
+					int argb = src[srcPos + from + i];
+
+					if ( first || argb != last ) {
+						first = false;
+						last = argb;
+						code = ( Channel.classify( argb ) << 8 ) | Channel.getIntensity( argb );
+					}
+
+					codes[i] = code;
+				}
+			}
+
+			for ( int k = 0; k < n; k++ ) {
+				int[] table = flat[k], out = dest[k];
+
+				for ( int i = 0; i < count; i++ ) {
+					int argb = src[srcPos + from + i];
+					int rgb = table[codes[i]];
+
+					out[destPos + from + i] = rgb == -1 ? argb : ( argb & 0xff000000 ) | rgb;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Dye pixels straight from a buffer, such as a {@link MappedImage}.
+	 * 
+	 * @param src the source pixels, from index 0
+	 * @param dest the destination pixels
+	 * @param length the number of pixels to dye
+	 */
+	void recolorBuffer( IntBuffer src, int[] dest, int length ) {
+		if ( length <= 0 ) {
+			return;
+		}
+
+		int last = src.get( 0 );
+		int dyed = update( last );
+
+		for ( int i = 0; i < length; i++ ) {
+			int argb = src.get( i );
+
+			if ( argb != last ) {
+				last = argb;
+				dyed = update( argb );
+			}
+
+			dest[i] = dyed;
+		}
+	}
+
+	/**
+	 * Dye analysed pixels straight from buffers, such as a
+	 * {@link MappedImage}.
+	 * 
+	 * @see #recolorMapped(ChannelMap, int, int[], int, int)
+	 * @param src the source pixels, from index 0
+	 * @param channels the channel ordinal of each pixel
+	 * @param intensities the intensity of each pixel
+	 * @param dest the destination pixels
+	 * @param length the number of pixels to dye
+	 */
+	void recolorBuffer( IntBuffer src, ByteBuffer channels, ByteBuffer intensities, int[] dest, int length ) {
+		for ( int i = 0; i < length; i++ ) {
+			int argb = src.get( i );
+			int[] table = this.tables[channels.get( i )];
 
-		int x, y;
-		Color color;
+			if ( table != null ) {
+				int rgb = table[intensities.get( i ) & 0xff];
 
-		for ( y = 0; y < h; y++ ) {
-			for ( x = 0; x < w; x++ ) {
-				color = new Color( img.getRGB( x, y ), true );
-				color = update( color );
-				ret.setRGB( x, y, color.getRGB() );
+				if ( rgb != -1 ) {
+					argb = ( argb & 0xff000000 ) | rgb;
+				}
 			}
+
+			dest[i] = argb;
 		}
+	}
 
+	/**
+	 * Dye an analysed image. Every pixel is a table lookup, no pixel has to
+	 * be classified again.
+	 * 
+	 * @param map the analysed image
+	 * @return a new image that is the dyed version of the image
+	 */
+	public BufferedImage recolorMapped( ChannelMap map ) {
+		long start = DyeMetrics.start();
+		BufferedImage ret = new BufferedImage( map.getWidth(), map.getHeight(), BufferedImage.TYPE_INT_ARGB );
+
+		recolorMapped( map, 0, ImageUtils.getData( ret ), 0, map.getWidth() * map.getHeight() );
+
+		DyeMetrics.end( DyeMetrics.Operation.RECOLOR, start, (long) map.getWidth() * map.getHeight(), DyeMetrics.getBytes( ret ) );
 		return ret;
 	}
 
+	/**
+	 * Dye a run of pixels of an analysed image.
+	 * 
+	 * @param map the analysed image
+	 * @param srcPos the first pixel to dye
+	 * @param dest the destination pixels
+	 * @param destPos where to store the first dyed pixel
+	 * @param length the number of pixels to dye
+	 */
+	public void recolorMapped( ChannelMap map, int srcPos, int[] dest, int destPos, int length ) {
+		int[] pixels = map.pixels;
+		byte[] channels = map.channels, intensities = map.intensities;
+
+		for ( int i = 0; i < length; i++ ) {
+			int j = srcPos + i;
+			int argb = pixels[j];
+			int[] table = this.tables[channels[j]];
+
+			if ( table != null ) {
+				int rgb = table[intensities[j] & 0xff];
+
+				if ( rgb != -1 ) {
+					argb = ( argb & 0xff000000 ) | rgb;
+				}
+			}
+
+			dest[destPos + i] = argb;
+		}
+	}
+
+	/**
+	 * Dye part of an analysed image into the same part of an existing image of
+	 * the same size. The rest of the destination is left alone.
+	 * 
+	 * @see #recolorRegion(BufferedImage, BufferedImage, Rectangle)
+	 * @param map the analysed image
+	 * @param dest the image to store the result in, which can't be indexed
+	 * @param region the part to dye, which is clipped to the image
+	 * @return <code>dest</code>
+	 * @throws IllegalArgumentException if the sizes differ or
+	 *             <code>dest</code> is indexed
+	 */
+	public BufferedImage recolorMappedRegion( ChannelMap map, BufferedImage dest, Rectangle region ) {
+		long start = DyeMetrics.start();
+		int w = map.getWidth();
+		int h = map.getHeight();
+
+		if ( dest.getWidth() != w || dest.getHeight() != h ) {
+			throw new IllegalArgumentException( "dest must be " + w + "x" + h );
+		}
+		if ( dest.getColorModel() instanceof IndexColorModel ) {
+			throw new IllegalArgumentException( "dest cannot be indexed" );
+		}
+
+		Rectangle r = region.intersection( new Rectangle( w, h ) );
+		if ( r.isEmpty() ) {
+			return dest;
+		}
+
+		int[] data = ImageUtils.getData( dest );
+
+		if ( data != null ) {
+			for ( int y = r.y; y < r.y + r.height; y++ ) {
+				recolorMapped( map, y * w + r.x, data, y * w + r.x, r.width );
+			}
+		} else {
+			int[] buffer = new int[r.width];
+			for ( int y = r.y; y < r.y + r.height; y++ ) {
+				recolorMapped( map, y * w + r.x, buffer, 0, r.width );
+				dest.setRGB( r.x, y, r.width, 1, buffer, 0, r.width );
+			}
+		}
+
+		DyeMetrics.end( DyeMetrics.Operation.RECOLOR, start, (long) r.width * r.height, 0 );
+		return dest;
+	}
+
+	/**
+	 * Returns the channels this dye colors differently than another dye.
+	 * 
+	 * @param other the other dye
+	 * @return the channels whose compiled palettes differ
+	 */
+	public EnumSet< Channel > getChangedChannels( Dye other ) {
+		EnumSet< Channel > ret = EnumSet.noneOf( Channel.class );
+
+		for ( Channel channel : Channel.VALUES ) {
+			int c = channel.ordinal();
+			if ( !Arrays.equals( this.tables[c], other.tables[c] ) ) {
+				ret.add( channel );
+			}
+		}
+
+		return ret;
+	}
+
+	/**
+	 * Redye an image that was dyed from the same analysed image with another
+	 * dye. Only the pixels of channels whose palettes changed are rewritten,
+	 * so changing one channel of a large image is cheap.
+	 * 
+	 * @param map the analysed image
+	 * @param previous the dye <code>dest</code> was dyed with
+	 * @param dest the dyed image, which can't be indexed
+	 * @return <code>dest</code>
+	 * @throws IllegalArgumentException if the sizes differ or
+	 *             <code>dest</code> is indexed
+	 */
+	public BufferedImage recolorChanged( ChannelMap map, Dye previous, BufferedImage dest ) {
+		int w = map.getWidth();
+		int h = map.getHeight();
+
+		if ( dest.getWidth() != w || dest.getHeight() != h ) {
+			throw new IllegalArgumentException( "dest must be " + w + "x" + h );
+		}
+		if ( dest.getColorModel() instanceof IndexColorModel ) {
+			throw new IllegalArgumentException( "dest cannot be indexed" );
+		}
+
+		long start = DyeMetrics.start();
+		EnumSet< Channel > changed = getChangedChannels( previous );
+		if ( changed.isEmpty() ) {
+			DyeMetrics.end( DyeMetrics.Operation.RECOLOR, start, 0, 0 );
+			return dest;
+		}
+
+		map.buildIndex();
+
+		int count = 0;
+		for ( Channel channel : changed ) {
+			count += map.offsets[channel.ordinal() + 1] - map.offsets[channel.ordinal()];
+		}
+
+		int[] data = ImageUtils.getData( dest );
+
+		// Scattered writes only pay off while few pixels change
+		if ( data != null && count > w * h / 2 ) {
+			recolorMapped( map, 0, data, 0, w * h );
+			DyeMetrics.end( DyeMetrics.Operation.RECOLOR, start, (long) w * h, 0 );
+			return dest;
+		}
+
+		int[] pixels = map.pixels, index = map.index;
+		byte[] intensities = map.intensities;
+
+		for ( Channel channel : changed ) {
+			int[] table = this.tables[channel.ordinal()];
+			int end = map.offsets[channel.ordinal() + 1];
+
+			for ( int k = map.offsets[channel.ordinal()]; k < end; k++ ) {
+				int i = index[k];
+				int argb = pixels[i];
+
+				if ( table != null ) {
+					int rgb = table[intensities[i] & 0xff];
+
+					if ( rgb != -1 ) {
+						argb = ( argb & 0xff000000 ) | rgb;
+					}
+				}
+
+				if ( data != null ) {
+					data[i] = argb;
+				} else {
+					dest.setRGB( i % w, i / w, argb );
+				}
+			}
+		}
+
+		DyeMetrics.end( DyeMetrics.Operation.RECOLOR, start, count, 0 );
+		return dest;
+	}
+
+	/**
+	 * Dye an image from its runs of identical pixels. Each run is dyed once
+	 * and filled, and runs of fully transparent black are skipped, as they
+	 * stay the same under any dye. Analysing an image once with
+	 * {@link PixelRuns#of(BufferedImage)} pays off when dyeing it repeatedly.
+	 * 
+	 * @param runs the runs of the image to dye
+	 * @return a new image that is the dyed version of the image
+	 */
+	public BufferedImage recolorRuns( PixelRuns runs ) {
+		long start = DyeMetrics.start();
+		BufferedImage ret = new BufferedImage( runs.getWidth(), runs.getHeight(), BufferedImage.TYPE_INT_ARGB );
+
+		// New images are transparent black already
+		recolorRuns( runs, ImageUtils.getData( ret ), false );
+
+		DyeMetrics.end( DyeMetrics.Operation.RECOLOR, start, (long) runs.getWidth() * runs.getHeight(), DyeMetrics.getBytes( ret ) );
+		return ret;
+	}
+
+	/**
+	 * Dye an image from its runs of identical pixels into the given array.
+	 * 
+	 * @param runs the runs of the image to dye
+	 * @param dest the destination pixels, at least as long as the image
+	 * @see #recolorRuns(PixelRuns)
+	 */
+	public void recolorRuns( PixelRuns runs, int[] dest ) {
+		long start = DyeMetrics.start();
+
+		recolorRuns( runs, dest, true );
+
+		DyeMetrics.end( DyeMetrics.Operation.RECOLOR, start, (long) runs.getWidth() * runs.getHeight(), 0 );
+	}
+
+	private void recolorRuns( PixelRuns runs, int[] dest, boolean fillTransparent ) {
+		int[] values = runs.values, ends = runs.ends;
+		int start = 0;
+
+		for ( int i = 0; i < runs.count; i++ ) {
+			int argb = values[i];
+
+			if ( argb != 0 || fillTransparent ) {
+				Arrays.fill( dest, start, ends[i], update( argb ) );
+			}
+
+			start = ends[i];
+		}
+	}
+
 	@Override
 	public boolean equals( Object obj ) {
 		if ( ! ( obj instanceof Dye ) ) {
@@ -391,6 +1382,18 @@ public class Dye implements Cloneable {
 		return true;
 	}
 
+	@Override
+	public int hashCode() {
+		int hash = 1;
+
+		for ( Channel c : Channel.VALUES ) {
+			Palette p = this.palettes.get( c );
+			hash = 31 * hash + ( p == null ? 0 : p.hashCode() );
+		}
+
+		return hash;
+	}
+
 	/**
 	 * Parse the given string for palette information.
 	 * 
@@ -411,28 +1414,7 @@ public class Dye implements Cloneable {
 			channels = new LinkedList< Channel >();
 		}
 
-		String[] paletteArray = data.split( ";" );
-		Channel channel;
-		int n;
-
-		for ( String palette : paletteArray ) {
-			n = palette.indexOf( ":" );
-
-			if ( n == -1 ) {
-				channel = channels.poll();
-				if ( channel == null ) {
-					throw new IllegalArgumentException( "Bad palette data: " + data );
-				}
-				data = palette;
-			} else {
-				channel = Channel.cast( palette.substring( 0, n ) );
-				data = palette.substring( n + 1 );
-			}
-
-			if ( data.length() > 0 ) {
-				palettes.put( channel, new Palette( data ) );
-			}
-		}
+		DyeParser.parsePalettes( data, palettes, channels );
 	}
 
 	/**
@@ -475,46 +1457,6 @@ public class Dye implements Cloneable {
 			paletteString = "";
 		}
 
-		int n = name.indexOf( "|" );
-
-		EnumMap< Channel, Palette > palettes = new EnumMap< Channel, Palette >( Channel.class );
-		LinkedList< Channel > channels = new LinkedList< Channel >();
-
-		if ( n > -1 ) {
-			String[] paletteArray = name.substring( n + 1 ).split( ";" );
-			name = name.substring( 0, n );
-
-			Channel channel;
-			String data;
-
-			for ( String palette : paletteArray ) {
-				n = palette.indexOf( ":" );
-
-				if ( n == -1 ) {
-					channel = Channel.cast( palette );
-					data = null;
-				} else {
-					channel = Channel.cast( palette.substring( 0, n ) );
-					data = palette.substring( n + 1 );
-				}
-
-				if ( data == null ) {
-					channels.add( channel );
-				} else {
-					palettes.put( channel, new Palette( data ) );
-				}
-			}
-
-			paletteArray = paletteString.split( ";" );
-		}
-
-		parsePalettes( paletteString, palettes, channels );
-
-		/*
-		 * for (Channel c : Channel.values()) { if (data == null) continue;
-		 * palettes.put(c, new Palette(dyes.get(c))); }
-		 */
-
-		return new Object[] { name, new Dye( palettes ) };
+		return DyeParser.resolveDyes( name, paletteString );
 	}
 }
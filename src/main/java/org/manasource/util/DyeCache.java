@@ -0,0 +1,216 @@
+/*
+ *  Copyright (C) 2013  Jared Adams
+ *
+ *  This file is part of ManaDye.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.manasource.util;
+
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of dyed images. Entries are keyed by the identity of the
+ * source image and the {@link Dye} (by value), and the least recently used
+ * entries are evicted once the cached pixels take up more than the configured
+ * number of bytes. The cache keeps its source images reachable until their
+ * entries are evicted.
+ * <p>
+ * Cached images are shared between callers and must not be modified.
+ */
+public class DyeCache {
+
+	private static class Key {
+
+		private final BufferedImage source;
+
+		private final Dye dye;
+
+		Key( BufferedImage source, Dye dye ) {
+			this.source = source;
+			this.dye = dye;
+		}
+
+		@Override
+		public boolean equals( Object obj ) {
+			if ( ! ( obj instanceof Key ) ) {
+				return false;
+			}
+
+			Key o = (Key) obj;
+
+			return this.source == o.source && this.dye.equals( o.dye );
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode( this.source ) * 31 + this.dye.hashCode();
+		}
+	}
+
+	private final LinkedHashMap< Key, BufferedImage > entries = new LinkedHashMap< Key, BufferedImage >( 16, 0.75f, true );
+
+	private final long maxBytes;
+
+	private long bytes;
+
+	private long hits, misses, evictions;
+
+	/**
+	 * @param maxBytes the most pixel bytes to keep cached
+	 */
+	public DyeCache( long maxBytes ) {
+		if ( maxBytes < 0 ) {
+			throw new IllegalArgumentException( "maxBytes cannot be negative" );
+		}
+
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Returns the dyed version of the given image, dyeing and caching it if it
+	 * isn't cached yet.
+	 * 
+	 * @param dye the dye to apply
+	 * @param source the image to dye
+	 * @return the dyed image
+	 */
+	public BufferedImage recolor( Dye dye, BufferedImage source ) {
+		if ( source == null ) {
+			return null;
+		}
+
+		BufferedImage ret = get( dye, source );
+
+		if ( ret == null ) {
+			// Dye outside the lock; a concurrent miss at worst dyes twice
+			ret = dye.recolor( source );
+			put( dye, source, ret );
+		}
+
+		return ret;
+	}
+
+	/**
+	 * Looks up a dyed image.
+	 * 
+	 * @param dye the dye
+	 * @param source the source image
+	 * @return the cached image or <code>null</code> if it isn't cached
+	 */
+	public BufferedImage get( Dye dye, BufferedImage source ) {
+		BufferedImage ret;
+
+		synchronized ( this ) {
+			ret = this.entries.get( new Key( source, dye ) );
+
+			if ( ret == null ) {
+				this.misses++;
+			} else {
+				this.hits++;
+			}
+		}
+
+		// Outside the lock, so slow listeners don't hold up other lookups
+		DyeMetrics.cacheAccessed( DyeMetrics.Cache.DYE_CACHE, ret != null );
+
+		return ret;
+	}
+
+	/**
+	 * Adds a dyed image, evicting older entries if needed. Images larger than
+	 * the whole cache aren't kept.
+	 * 
+	 * @param dye the dye
+	 * @param source the source image
+	 * @param dyed the dyed image
+	 */
+	public synchronized void put( Dye dye, BufferedImage source, BufferedImage dyed ) {
+		long size = getBytes( dyed );
+		if ( size > this.maxBytes ) {
+			return;
+		}
+
+		BufferedImage old = this.entries.put( new Key( source, dye ), dyed );
+		if ( old != null ) {
+			this.bytes -= getBytes( old );
+		}
+		this.bytes += size;
+
+		Iterator< Map.Entry< Key, BufferedImage >> it = this.entries.entrySet().iterator();
+		while ( this.bytes > this.maxBytes && it.hasNext() ) {
+			this.bytes -= getBytes( it.next().getValue() );
+			it.remove();
+			this.evictions++;
+		}
+	}
+
+	/**
+	 * Removes every entry. The counters are kept.
+	 */
+	public synchronized void clear() {
+		this.entries.clear();
+		this.bytes = 0;
+	}
+
+	private static long getBytes( BufferedImage img ) {
+		return (long) img.getWidth() * img.getHeight() * 4;
+	}
+
+	/**
+	 * @return the number of lookups that found an image
+	 */
+	public synchronized long getHits() {
+		return this.hits;
+	}
+
+	/**
+	 * @return the number of lookups that didn't find an image
+	 */
+	public synchronized long getMisses() {
+		return this.misses;
+	}
+
+	/**
+	 * @return the number of entries evicted to make room
+	 */
+	public synchronized long getEvictions() {
+		return this.evictions;
+	}
+
+	/**
+	 * @return the number of cached images
+	 */
+	public synchronized int getCount() {
+		return this.entries.size();
+	}
+
+	/**
+	 * @return the pixel bytes currently cached
+	 */
+	public synchronized long getBytes() {
+		return this.bytes;
+	}
+
+	/**
+	 * @return the most pixel bytes that will be cached
+	 */
+	public long getMaxBytes() {
+		return this.maxBytes;
+	}
+}
@@ -0,0 +1,426 @@
+/*
+ *  Copyright (C) 2013  Jared Adams
+ *
+ *  This file is part of ManaDye.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.manasource.util;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counts, times and sizes dyeing work: image dyeing, image loading, dye
+ * string parsing and cache lookups. Disabled by default, in which case each
+ * instrumented call only reads a flag; enable it with
+ * {@link #setEnabled(boolean)} or the <code>manadye.metrics</code> system
+ * property.
+ * <p>
+ * The totals are available from {@link #getMetrics(Operation)} and
+ * {@link #getMetrics(Cache)}, and as MXBeans named
+ * <code>org.manasource:type=DyeMetrics,name=...</code> once enabled.
+ * {@link DyeMetricsListener}s see every single measurement, and hear about
+ * MXBeans that couldn't be registered.
+ * <p>
+ * Dyeing is measured per call of the image level methods of {@link Dye},
+ * the <code>int[]</code> kernels underneath aren't measured.
+ */
+public final class DyeMetrics {
+
+	/**
+	 * The kinds of measured operations.
+	 */
+	public static enum Operation {
+		/**
+		 * Dyeing an image or part of one.
+		 */
+		RECOLOR,
+		/**
+		 * Loading an image with {@link ImageUtils#getImage(java.io.InputStream, boolean)}.
+		 */
+		LOAD,
+		/**
+		 * Parsing a dye string.
+		 */
+		PARSE
+	}
+
+	/**
+	 * The caches of dyed images.
+	 */
+	public static enum Cache {
+		/**
+		 * The tiles of a dyeable image, a hit when nothing had to be dyed.
+		 */
+		IMAGE,
+		/**
+		 * A {@link DyeCache}.
+		 */
+		DYE_CACHE
+	}
+
+	/**
+	 * The number of buckets of the latency histograms.
+	 */
+	public static final int BUCKETS = 40;
+
+	/**
+	 * Returned by {@link #start()} while disabled.
+	 */
+	public static final long NOT_TIMED = Long.MIN_VALUE;
+
+	private static class OperationMetrics implements OperationMetricsMXBean {
+
+		private final AtomicLong count = new AtomicLong(), pixels = new AtomicLong(), nanos = new AtomicLong(), maxNanos = new AtomicLong(), bytes = new AtomicLong();
+
+		private final AtomicLongArray histogram = new AtomicLongArray( BUCKETS );
+
+		void add( long nanos, long pixels, long bytes ) {
+			this.count.incrementAndGet();
+			this.pixels.addAndGet( pixels );
+			this.nanos.addAndGet( nanos );
+			this.bytes.addAndGet( bytes );
+
+			long max;
+			while ( nanos > ( max = this.maxNanos.get() ) && !this.maxNanos.compareAndSet( max, nanos ) ) {
+				// Lost a race, try again
+			}
+
+			int bucket = nanos <= 0 ? 0 : 63 - Long.numberOfLeadingZeros( nanos );
+			this.histogram.incrementAndGet( Math.min( bucket, BUCKETS - 1 ) );
+		}
+
+		@Override
+		public long getCount() {
+			return this.count.get();
+		}
+
+		@Override
+		public long getPixels() {
+			return this.pixels.get();
+		}
+
+		@Override
+		public long getTotalNanos() {
+			return this.nanos.get();
+		}
+
+		@Override
+		public long getMaxNanos() {
+			return this.maxNanos.get();
+		}
+
+		@Override
+		public double getMeanMillis() {
+			long count = getCount();
+			return count == 0 ? 0 : getTotalNanos() / 1e6 / count;
+		}
+
+		@Override
+		public double getPixelsPerSecond() {
+			long nanos = getTotalNanos();
+			return nanos == 0 ? 0 : getPixels() * 1e9 / nanos;
+		}
+
+		@Override
+		public long getBytesAllocated() {
+			return this.bytes.get();
+		}
+
+		@Override
+		public long[] getLatencyHistogram() {
+			long[] ret = new long[BUCKETS];
+			for ( int i = 0; i < ret.length; i++ ) {
+				ret[i] = this.histogram.get( i );
+			}
+			return ret;
+		}
+
+		@Override
+		public void reset() {
+			this.count.set( 0 );
+			this.pixels.set( 0 );
+			this.nanos.set( 0 );
+			this.maxNanos.set( 0 );
+			this.bytes.set( 0 );
+			for ( int i = 0; i < BUCKETS; i++ ) {
+				this.histogram.set( i, 0 );
+			}
+		}
+	}
+
+	private static class CacheMetrics implements CacheMetricsMXBean {
+
+		private final AtomicLong hits = new AtomicLong(), misses = new AtomicLong();
+
+		@Override
+		public long getHits() {
+			return this.hits.get();
+		}
+
+		@Override
+		public long getMisses() {
+			return this.misses.get();
+		}
+
+		@Override
+		public double getHitRatio() {
+			long hits = getHits(), total = hits + getMisses();
+			return total == 0 ? 0 : (double) hits / total;
+		}
+
+		@Override
+		public void reset() {
+			this.hits.set( 0 );
+			this.misses.set( 0 );
+		}
+	}
+
+	private static final OperationMetrics[] OPERATIONS = new OperationMetrics[Operation.values().length];
+
+	private static final CacheMetrics[] CACHES = new CacheMetrics[Cache.values().length];
+
+	private static final CopyOnWriteArrayList< DyeMetricsListener > LISTENERS = new CopyOnWriteArrayList< DyeMetricsListener >();
+
+	private static volatile boolean enabled;
+
+	private static boolean registered;
+
+	/**
+	 * Why the MXBeans couldn't be registered, if they couldn't.
+	 */
+	private static volatile JMException registrationFailure;
+
+	static {
+		for ( int i = 0; i < OPERATIONS.length; i++ ) {
+			OPERATIONS[i] = new OperationMetrics();
+		}
+		for ( int i = 0; i < CACHES.length; i++ ) {
+			CACHES[i] = new CacheMetrics();
+		}
+
+		if ( Boolean.getBoolean( "manadye.metrics" ) ) {
+			// Measure even without MXBeans, listeners hear of the failure
+			registerMBeans();
+			enabled = true;
+		}
+	}
+
+	private DyeMetrics() {
+		// Static methods only
+	}
+
+	/**
+	 * @return whether measurements are taken
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Turns measuring on or off. The MXBeans are registered with the platform
+	 * MBean server the first time it is turned on.
+	 * 
+	 * @param enabled whether to take measurements
+	 * @throws IllegalStateException if the MXBeans couldn't be registered,
+	 *             in which case measuring isn't turned on
+	 */
+	public static void setEnabled( boolean enabled ) {
+		if ( enabled ) {
+			JMException e = registerMBeans();
+
+			if ( e != null ) {
+				throw new IllegalStateException( "Couldn't register the metrics MXBeans", e );
+			}
+		}
+
+		DyeMetrics.enabled = enabled;
+	}
+
+	/**
+	 * Registers the MXBeans that aren't registered yet, and tells the
+	 * listeners if that fails.
+	 * 
+	 * @return why registering failed, or <code>null</code>
+	 */
+	private static synchronized JMException registerMBeans() {
+		if ( registered ) {
+			return null;
+		}
+
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+			for ( Operation operation : Operation.values() ) {
+				register( server, OPERATIONS[operation.ordinal()], operation.name() );
+			}
+			for ( Cache cache : Cache.values() ) {
+				register( server, CACHES[cache.ordinal()], cache.name() );
+			}
+		} catch ( JMException e ) {
+			registrationFailure = e;
+
+			for ( DyeMetricsListener listener : LISTENERS ) {
+				listener.registrationFailed( e );
+			}
+			return e;
+		}
+
+		registered = true;
+		registrationFailure = null;
+		return null;
+	}
+
+	private static void register( MBeanServer server, Object bean, String name ) throws JMException {
+		ObjectName objectName = getObjectName( name );
+
+		// Left over from an earlier attempt that failed part way
+		if ( !server.isRegistered( objectName ) ) {
+			server.registerMBean( bean, objectName );
+		}
+	}
+
+	private static ObjectName getObjectName( String name ) throws JMException {
+		return new ObjectName( "org.manasource:type=DyeMetrics,name=" + name );
+	}
+
+	/**
+	 * @param operation the kind of operation
+	 * @return the totals for the operation
+	 */
+	public static OperationMetricsMXBean getMetrics( Operation operation ) {
+		return OPERATIONS[operation.ordinal()];
+	}
+
+	/**
+	 * @param cache the cache
+	 * @return the lookup counts for the cache
+	 */
+	public static CacheMetricsMXBean getMetrics( Cache cache ) {
+		return CACHES[cache.ordinal()];
+	}
+
+	/**
+	 * Sets every total back to zero.
+	 */
+	public static void reset() {
+		for ( OperationMetrics metrics : OPERATIONS ) {
+			metrics.reset();
+		}
+		for ( CacheMetrics metrics : CACHES ) {
+			metrics.reset();
+		}
+	}
+
+	/**
+	 * Adds a listener. It is told right away if the MXBeans couldn't be
+	 * registered.
+	 * 
+	 * @param listener the listener to add
+	 */
+	public static void addListener( DyeMetricsListener listener ) {
+		LISTENERS.add( listener );
+
+		JMException failure = registrationFailure;
+		if ( failure != null ) {
+			listener.registrationFailed( failure );
+		}
+	}
+
+	/**
+	 * @param listener the listener to remove
+	 */
+	public static void removeListener( DyeMetricsListener listener ) {
+		LISTENERS.remove( listener );
+	}
+
+	/**
+	 * Starts timing an operation.
+	 * 
+	 * @return the time to pass to {@link #end(Operation, long, long, long)},
+	 *         or {@link #NOT_TIMED} while disabled
+	 */
+	public static long start() {
+		return enabled ? System.nanoTime() : NOT_TIMED;
+	}
+
+	/**
+	 * Records a completed operation, unless it wasn't timed.
+	 * 
+	 * @param operation the kind of operation
+	 * @param start the value {@link #start()} returned
+	 * @param pixels the number of pixels handled
+	 * @param bytes the number of bytes of image data allocated
+	 */
+	public static void end( Operation operation, long start, long pixels, long bytes ) {
+		if ( start == NOT_TIMED ) {
+			return;
+		}
+
+		long nanos = System.nanoTime() - start;
+		OPERATIONS[operation.ordinal()].add( nanos, pixels, bytes );
+
+		for ( DyeMetricsListener listener : LISTENERS ) {
+			listener.operationCompleted( operation, nanos, pixels, bytes );
+		}
+	}
+
+	/**
+	 * Records a cache lookup while enabled.
+	 * 
+	 * @param cache the cache
+	 * @param hit whether the lookup found a dyed image
+	 */
+	public static void cacheAccessed( Cache cache, boolean hit ) {
+		if ( !enabled ) {
+			return;
+		}
+
+		CacheMetrics metrics = CACHES[cache.ordinal()];
+		if ( hit ) {
+			metrics.hits.incrementAndGet();
+		} else {
+			metrics.misses.incrementAndGet();
+		}
+
+		for ( DyeMetricsListener listener : LISTENERS ) {
+			listener.cacheAccessed( cache, hit );
+		}
+	}
+
+	/**
+	 * Returns the size of the pixel data of an image, for the bytes allocated
+	 * by operations that create images.
+	 * 
+	 * @param img the image, may be <code>null</code>
+	 * @return the size of the image's data buffer in bytes
+	 */
+	static long getBytes( BufferedImage img ) {
+		if ( img == null ) {
+			return 0;
+		}
+
+		DataBuffer buffer = img.getRaster().getDataBuffer();
+		return (long) buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize( buffer.getDataType() ) / 8;
+	}
+}
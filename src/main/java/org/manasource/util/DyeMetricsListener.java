@@ -0,0 +1,76 @@
+/*
+ *  Copyright (C) 2013  Jared Adams
+ *
+ *  This file is part of ManaDye.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.manasource.util;
+
+import javax.management.JMException;
+
+/**
+ * Receives every measurement {@link DyeMetrics} takes while it is enabled.
+ * Listeners are called on the thread that did the work, so they should be
+ * quick and thread safe.
+ */
+public interface DyeMetricsListener {
+
+	/**
+	 * An empty listener, to override only the methods of interest.
+	 */
+	public static class Adapter implements DyeMetricsListener {
+
+		@Override
+		public void operationCompleted( DyeMetrics.Operation operation, long nanos, long pixels, long bytes ) {
+			// Nothing
+		}
+
+		@Override
+		public void cacheAccessed( DyeMetrics.Cache cache, boolean hit ) {
+			// Nothing
+		}
+
+		@Override
+		public void registrationFailed( JMException e ) {
+			// Nothing
+		}
+	}
+
+	/**
+	 * Called after an operation completed.
+	 * 
+	 * @param operation the kind of operation
+	 * @param nanos how long it took
+	 * @param pixels the number of pixels it handled
+	 * @param bytes the number of bytes of image data it allocated
+	 */
+	public void operationCompleted( DyeMetrics.Operation operation, long nanos, long pixels, long bytes );
+
+	/**
+	 * Called after a cache lookup.
+	 * 
+	 * @param cache the cache
+	 * @param hit whether the lookup found a dyed image
+	 */
+	public void cacheAccessed( DyeMetrics.Cache cache, boolean hit );
+
+	/**
+	 * Called when the metrics MXBeans couldn't be registered. The totals are
+	 * still available from {@link DyeMetrics}.
+	 * 
+	 * @param e why registering failed
+	 */
+	public void registrationFailed( JMException e );
+}
@@ -0,0 +1,244 @@
+/*
+ *  Copyright (C) 2013  Jared Adams
+ *
+ *  This file is part of ManaDye.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.manasource.util;
+
+import java.awt.Color;
+import java.util.EnumMap;
+import java.util.LinkedList;
+
+import org.manasource.util.Dye.Channel;
+import org.manasource.util.Dye.Palette;
+
+/**
+ * Single pass parser for dye strings. Works on index ranges of the input
+ * instead of splitting it, and decodes colors without throwing on bad input.
+ * The results match the original split based parsing: empty trailing
+ * segments are ignored and colors that aren't valid hex numbers are skipped.
+ */
+final class DyeParser {
+
+	private DyeParser() {
+		// Static methods only
+	}
+
+	/**
+	 * Returns where the segments of a <code>;</code> separated range end,
+	 * ignoring empty trailing segments.
+	 */
+	private static int trimEnd( String data, int from, int to ) {
+		while ( to > from && data.charAt( to - 1 ) == ';' ) {
+			to--;
+		}
+		return to;
+	}
+
+	/**
+	 * Returns the end of the segment starting at the given index.
+	 */
+	private static int segmentEnd( String data, int from, int to ) {
+		int n = data.indexOf( ';', from );
+		return n == -1 || n > to ? to : n;
+	}
+
+	/**
+	 * Returns the position of the first <code>:</code> in the range, or -1.
+	 */
+	private static int colon( String data, int from, int to ) {
+		int n = data.indexOf( ':', from );
+		return n == -1 || n >= to ? -1 : n;
+	}
+
+	/**
+	 * Returns the channel named by the given range, or NONE.
+	 */
+	static Channel channel( String data, int from, int to ) {
+		return to - from == 1 ? Channel.cast( data.charAt( from ) ) : Channel.NONE;
+	}
+
+	/**
+	 * Decodes one color of a palette. A leading <code>#</code> is optional.
+	 * 
+	 * @return the color or -1 if the range isn't a valid positive int in hex
+	 */
+	private static int color( String data, int from, int to ) {
+		if ( data.charAt( from ) == '#' ) {
+			from++;
+		}
+		if ( from == to ) {
+			return -1;
+		}
+
+		long value = 0;
+
+		for ( int i = from; i < to; i++ ) {
+			int digit = Character.digit( data.charAt( i ), 16 );
+			if ( digit == -1 ) {
+				return -1;
+			}
+
+			value = ( value << 4 ) | digit;
+			if ( value > Integer.MAX_VALUE ) {
+				return -1;
+			}
+		}
+
+		return (int) value;
+	}
+
+	/**
+	 * Parses a <code>,</code> separated list of colors. Lists that don't start
+	 * with <code>#</code> are empty.
+	 * 
+	 * @return the colors in the range
+	 */
+	static Color[] colors( String data, int from, int to ) {
+		if ( from == to || data.charAt( from ) != '#' ) {
+			return new Color[0];
+		}
+
+		int count = 1;
+		for ( int i = from; i < to; i++ ) {
+			if ( data.charAt( i ) == ',' ) {
+				count++;
+			}
+		}
+
+		Color[] colors = new Color[count];
+		int n = 0;
+
+		while ( from < to ) {
+			int end = data.indexOf( ',', from );
+			if ( end == -1 || end > to ) {
+				end = to;
+			}
+
+			if ( end > from ) {
+				int value = color( data, from, end );
+				if ( value != -1 ) {
+					colors[n++] = new Color( value );
+				}
+			}
+
+			from = end + 1;
+		}
+
+		if ( n == count ) {
+			return colors;
+		}
+
+		Color[] ret = new Color[n];
+		System.arraycopy( colors, 0, ret, 0, n );
+		return ret;
+	}
+
+	/**
+	 * @see Dye#parsePalettes(String, EnumMap, LinkedList)
+	 */
+	static void parsePalettes( String data, EnumMap< Channel, Palette > palettes, LinkedList< Channel > channels ) {
+		if ( !tryParsePalettes( data, palettes, channels ) ) {
+			throw new IllegalArgumentException( "Bad palette data: " + data );
+		}
+	}
+
+	/**
+	 * Like {@link #parsePalettes(String, EnumMap, LinkedList)}, but reports
+	 * bad data instead of throwing. The maps may be partially filled then.
+	 * 
+	 * @return <code>false</code> if the data is malformed
+	 */
+	static boolean tryParsePalettes( String data, EnumMap< Channel, Palette > palettes, LinkedList< Channel > channels ) {
+		long start = DyeMetrics.start();
+		try {
+			return parse( data, palettes, channels );
+		} finally {
+			DyeMetrics.end( DyeMetrics.Operation.PARSE, start, 0, 0 );
+		}
+	}
+
+	private static boolean parse( String data, EnumMap< Channel, Palette > palettes, LinkedList< Channel > channels ) {
+		int end = trimEnd( data, 0, data.length() );
+		int from = 0;
+
+		while ( from < end ) {
+			int to = segmentEnd( data, from, end );
+			int n = colon( data, from, to );
+			Channel channel;
+
+			if ( n == -1 ) {
+				channel = channels.poll();
+				if ( channel == null ) {
+					return false;
+				}
+				n = from - 1;
+			} else {
+				channel = channel( data, from, n );
+			}
+
+			if ( n + 1 < to ) {
+				palettes.put( channel, new Palette( colors( data, n + 1, to ) ) );
+			}
+
+			from = to + 1;
+		}
+
+		return true;
+	}
+
+	/**
+	 * @see Dye#resolveDyes(String, String)
+	 */
+	static Object[] resolveDyes( String name, String paletteString ) {
+		int n = name.indexOf( '|' );
+
+		EnumMap< Channel, Palette > palettes = new EnumMap< Channel, Palette >( Channel.class );
+		LinkedList< Channel > channels = new LinkedList< Channel >();
+
+		if ( n > -1 ) {
+			int end = trimEnd( name, n + 1, name.length() );
+			int from = n + 1;
+
+			// An empty list still declares one (unnamed) channel
+			if ( from == name.length() ) {
+				channels.add( Channel.NONE );
+			}
+
+			while ( from < end ) {
+				int to = segmentEnd( name, from, end );
+				int c = colon( name, from, to );
+
+				if ( c == -1 ) {
+					channels.add( channel( name, from, to ) );
+				} else {
+					palettes.put( channel( name, from, c ), new Palette( colors( name, c + 1, to ) ) );
+				}
+
+				from = to + 1;
+			}
+
+			name = name.substring( 0, n );
+		}
+
+		if ( paletteString.length() > 0 ) {
+			parsePalettes( paletteString, palettes, channels );
+		}
+
+		return new Object[] { name, new Dye( palettes ) };
+	}
+}
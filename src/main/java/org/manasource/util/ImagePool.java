@@ -0,0 +1,226 @@
+/*
+ *  Copyright (C) 2013  Jared Adams
+ *
+ *  This file is part of ManaDye.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.manasource.util;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * A pool of reusable <code>TYPE_INT_ARGB</code> images, grouped by size. Use
+ * with {@link Dye#recolorInto(BufferedImage, BufferedImage)} to dye repeatedly
+ * without allocating. The pool keeps at most a given number of bytes of
+ * images, and drops the images of the least recently used sizes first.
+ */
+public class ImagePool {
+
+	/**
+	 * The default most bytes of pixels to keep pooled.
+	 */
+	public static final long DEFAULT_MAX_BYTES = 64L << 20;
+
+	/**
+	 * The most sizes to remember, including sizes with no free images left.
+	 */
+	private static final int MAX_SIZES = 1024;
+
+	/**
+	 * The free images of one size.
+	 */
+	private static final class Size {
+
+		// Only changed on the probe, never on a key in the map
+		int width, height;
+
+		final ArrayDeque< BufferedImage > images = new ArrayDeque< BufferedImage >();
+
+		Size( int width, int height ) {
+			this.width = width;
+			this.height = height;
+		}
+
+		long bytes() {
+			return this.images.size() * getBytes( this.width, this.height );
+		}
+
+		@Override
+		public boolean equals( Object obj ) {
+			if ( !( obj instanceof Size ) ) {
+				return false;
+			}
+
+			Size o = (Size) obj;
+			return this.width == o.width && this.height == o.height;
+		}
+
+		@Override
+		public int hashCode() {
+			return this.width * 31 + this.height;
+		}
+	}
+
+	/**
+	 * Access ordered, so the least recently used size comes first. Guarded
+	 * by its own lock.
+	 */
+	private final LinkedHashMap< Size, Size > free = new LinkedHashMap< Size, Size >( 16, 0.75f, true );
+
+	/**
+	 * Looks sizes up without allocating a key. Guarded by the lock on
+	 * {@link #free}.
+	 */
+	private final Size probe = new Size( 0, 0 );
+
+	private final int maxPerSize;
+
+	private final long maxBytes;
+
+	private long bytes;
+
+	/**
+	 * Creates a pool that keeps at most {@link #DEFAULT_MAX_BYTES}.
+	 * 
+	 * @param maxPerSize the most released images to keep for each size
+	 */
+	public ImagePool( int maxPerSize ) {
+		this( maxPerSize, DEFAULT_MAX_BYTES );
+	}
+
+	/**
+	 * @param maxPerSize the most released images to keep for each size
+	 * @param maxBytes the most bytes of pixels to keep for all sizes
+	 */
+	public ImagePool( int maxPerSize, long maxBytes ) {
+		if ( maxBytes < 0 ) {
+			throw new IllegalArgumentException( "maxBytes must not be negative" );
+		}
+
+		this.maxPerSize = maxPerSize;
+		this.maxBytes = maxBytes;
+	}
+
+	private static long getBytes( int width, int height ) {
+		return (long) width * height * 4;
+	}
+
+	/**
+	 * Must be called holding the lock on {@link #free}.
+	 * 
+	 * @return the entry for the given size, or null
+	 */
+	private Size find( int width, int height ) {
+		this.probe.width = width;
+		this.probe.height = height;
+
+		return this.free.get( this.probe );
+	}
+
+	/**
+	 * Returns an image of the given size. Images are reused as they are, so
+	 * their pixels are undefined.
+	 * 
+	 * @param width the width
+	 * @param height the height
+	 * @return a <code>TYPE_INT_ARGB</code> image
+	 */
+	public BufferedImage acquire( int width, int height ) {
+		synchronized ( this.free ) {
+			Size size = find( width, height );
+
+			if ( size != null && !size.images.isEmpty() ) {
+				this.bytes -= getBytes( width, height );
+				return size.images.pop();
+			}
+		}
+
+		return new BufferedImage( width, height, BufferedImage.TYPE_INT_ARGB );
+	}
+
+	/**
+	 * Returns an image to the pool. The image must not be used afterwards.
+	 * Images that aren't plain <code>TYPE_INT_ARGB</code> images, or that
+	 * are larger than the whole pool, are ignored.
+	 * 
+	 * @param img the image to release
+	 */
+	public void release( BufferedImage img ) {
+		if ( img == null || ImageUtils.getData( img ) == null ) {
+			return;
+		}
+
+		int w = img.getWidth(), h = img.getHeight();
+		if ( getBytes( w, h ) > this.maxBytes ) {
+			return;
+		}
+
+		synchronized ( this.free ) {
+			Size size = find( w, h );
+
+			if ( size == null ) {
+				size = new Size( w, h );
+				this.free.put( size, size );
+			}
+
+			if ( size.images.size() < this.maxPerSize && size.bytes() + getBytes( w, h ) <= this.maxBytes ) {
+				size.images.push( img );
+				this.bytes += getBytes( w, h );
+			}
+
+			if ( this.bytes > this.maxBytes || this.free.size() > MAX_SIZES ) {
+				evict();
+			}
+		}
+	}
+
+	/**
+	 * Drops the images of the least recently used sizes until the pool fits
+	 * its bounds again. The size released last is the most recently used
+	 * and never holds more than the bound by itself, so it is kept. Must be
+	 * called holding the lock on {@link #free}.
+	 */
+	private void evict() {
+		Iterator< Size > it = this.free.keySet().iterator();
+
+		while ( it.hasNext() && ( this.bytes > this.maxBytes || this.free.size() > MAX_SIZES ) ) {
+			this.bytes -= it.next().bytes();
+			it.remove();
+		}
+	}
+
+	/**
+	 * @return the bytes of pixels currently pooled
+	 */
+	public long getBytes() {
+		synchronized ( this.free ) {
+			return this.bytes;
+		}
+	}
+
+	/**
+	 * Drops every pooled image.
+	 */
+	public void clear() {
+		synchronized ( this.free ) {
+			this.free.clear();
+			this.bytes = 0;
+		}
+	}
+}
@@ -19,12 +19,20 @@
 
 package org.manasource.util;
 
-import java.awt.Color;
 import java.awt.color.ColorSpace;
 import java.awt.geom.AffineTransform;
 import java.awt.image.AffineTransformOp;
 import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.IndexColorModel;
+import java.awt.image.PixelInterleavedSampleModel;
 import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -47,58 +55,189 @@ public class ImageUtils {
 	 *         if it cannot be loaded
 	 */
 	public static BufferedImage getImage( InputStream is ) throws IOException {
+		return getImage( is, false );
+	}
+
+	/**
+	 * Loads an image from an InputStream. Will return an ARGB image, or if
+	 * requested, the image as loaded if it uses an {@link IndexColorModel}.
+	 * Indexed images take a quarter of the memory and
+	 * {@link Dye#recolor(BufferedImage)} only needs to dye their color table.
+	 * 
+	 * @param is the InputStream to load from
+	 * @param keepIndexed whether to return indexed images unconverted
+	 * @return the image in the stream or <code>null</code> if it cannot be
+	 *         loaded
+	 */
+	public static BufferedImage getImage( InputStream is, boolean keepIndexed ) throws IOException {
+		long start = DyeMetrics.start();
 		BufferedImage in = ImageIO.read( is );
 
 		// Pass the null on
 		if ( in == null ) {
+			DyeMetrics.end( DyeMetrics.Operation.LOAD, start, 0, 0 );
 			return null;
 		}
 
-		int w = in.getWidth(), h = in.getHeight();
+		long pixels = (long) in.getWidth() * in.getHeight();
 
-		BufferedImage ret = new BufferedImage( w, h, BufferedImage.TYPE_INT_ARGB );
+		if ( keepIndexed && in.getColorModel() instanceof IndexColorModel ) {
+			DyeMetrics.end( DyeMetrics.Operation.LOAD, start, pixels, DyeMetrics.getBytes( in ) );
+			return in;
+		}
 
-		int x, y;
+		BufferedImage ret = toARGBDecoded( in );
 
-		if ( in.getType() == BufferedImage.TYPE_CUSTOM && in.getColorModel().getColorSpace().getType() == ColorSpace.TYPE_GRAY ) {
+		// The decoded image counts too, unless it is returned as is
+		DyeMetrics.end( DyeMetrics.Operation.LOAD, start, pixels, DyeMetrics.getBytes( in ) + ( ret == in ? 0 : DyeMetrics.getBytes( ret ) ) );
+		return ret;
+	}
+
+	/**
+	 * Converts a freshly decoded image to a new <code>TYPE_INT_ARGB</code>
+	 * image, reading gray images as sRGB like other tools do.
+	 * 
+	 * @param in the decoded image
+	 * @return the converted image
+	 */
+	static BufferedImage toARGBDecoded( BufferedImage in ) {
+		if ( in.getColorModel().getColorSpace().getType() == ColorSpace.TYPE_GRAY ) {
 			// This is to fix a bug in Sun's apis, see
 			// http://bugs.sun.com/bugdatabase/view_bug.do?bug_id=5051418
+			BufferedImage ret = new BufferedImage( in.getWidth(), in.getHeight(), BufferedImage.TYPE_INT_ARGB );
+			copyGray( in.getRaster(), getData( ret ) );
+			return ret;
+		}
 
-			Raster raster = in.getData();
-			int numBands = raster.getNumBands();
+		return toARGB( in );
+	}
 
-			// Check for alpha
-			if ( numBands == 1 ) {
-				int[] sample = new int[1];
-				Color temp;
+	/**
+	 * Copies the samples of a gray raster with optional alpha, using the gray
+	 * values as sRGB values instead of linear ones.
+	 * 
+	 * @param raster the gray source
+	 * @param dest the destination pixels
+	 */
+	private static void copyGray( Raster raster, int[] dest ) {
+		int w = raster.getWidth(), h = raster.getHeight();
+		int bands = raster.getNumBands();
+		boolean alpha = bands > 1;
+		int grayMax = ( 1 << raster.getSampleModel().getSampleSize( 0 ) ) - 1;
+		int alphaMax = alpha ? ( 1 << raster.getSampleModel().getSampleSize( 1 ) ) - 1 : 0;
+		int[] row = new int[w * bands];
 
-				for ( y = 0; y < h; y++ ) {
-					for ( x = 0; x < w; x++ ) {
-						sample = raster.getPixel( x, y, sample );
-						temp = new Color( sample[0], sample[0], sample[0], 255 );
-						ret.setRGB( x, y, temp.getRGB() );
-					}
-				}
-			} else if ( numBands == 2 ) {
-				int[] sample = new int[2];
-				Color temp;
-
-				for ( y = 0; y < h; y++ ) {
-					for ( x = 0; x < w; x++ ) {
-						sample = raster.getPixel( x, y, sample );
-						temp = new Color( sample[0], sample[0], sample[0], sample[1] );
-						ret.setRGB( x, y, temp.getRGB() );
-					}
-				}
+		for ( int y = 0, i = 0; y < h; y++ ) {
+			raster.getPixels( 0, y, w, 1, row );
+
+			for ( int x = 0, j = 0; x < w; x++, i++, j += bands ) {
+				int g = grayMax == 255 ? row[j] : ( row[j] * 255 + grayMax / 2 ) / grayMax;
+				int a = !alpha ? 255 : alphaMax == 255 ? row[j + 1] : ( row[j + 1] * 255 + alphaMax / 2 ) / alphaMax;
+				dest[i] = ( a << 24 ) | ( g * 0x010101 );
 			}
+		}
+	}
+
+	/**
+	 * Converts an image to a new <code>TYPE_INT_ARGB</code> image with the
+	 * same appearance. Indexed images and 8 bit sRGB images (such as
+	 * <code>TYPE_4BYTE_ABGR</code> and <code>TYPE_3BYTE_BGR</code>) are
+	 * converted straight from their sample data, anything else goes through
+	 * {@link BufferedImage#getRGB(int, int, int, int, int[], int, int)}.
+	 * 
+	 * @param img the image to convert
+	 * @return the converted image
+	 */
+	public static BufferedImage toARGB( BufferedImage img ) {
+		int w = img.getWidth(), h = img.getHeight();
+
+		BufferedImage ret = new BufferedImage( w, h, BufferedImage.TYPE_INT_ARGB );
+		int[] dest = getData( ret );
+
+		ColorModel cm = img.getColorModel();
+		WritableRaster raster = img.getRaster();
+		int[] data = getData( img );
+
+		if ( data != null ) {
+			System.arraycopy( data, 0, dest, 0, w * h );
+		} else if ( cm instanceof IndexColorModel ) {
+			copyIndexed( (IndexColorModel) cm, raster, dest );
+		} else if ( isInterleavedSRGB( cm, raster ) ) {
+			copyInterleaved( raster, cm.hasAlpha(), dest );
 		} else {
-			// Do a simple copy of the image
-			ret = copy( in );
+			img.getRGB( 0, 0, w, h, dest, 0, w );
 		}
 
 		return ret;
 	}
 
+	/**
+	 * Looks every index of an indexed raster up in its color table.
+	 */
+	private static void copyIndexed( IndexColorModel cm, Raster raster, int[] dest ) {
+		int w = raster.getWidth(), h = raster.getHeight();
+
+		// Indices past the end of the color table are transparent black
+		int[] lut = new int[Math.max( cm.getMapSize(), 1 << cm.getPixelSize() )];
+		cm.getRGBs( lut );
+
+		int[] row = new int[w];
+
+		for ( int y = 0, i = 0; y < h; y++ ) {
+			raster.getSamples( 0, y, w, 1, 0, row );
+
+			for ( int x = 0; x < w; x++, i++ ) {
+				dest[i] = lut[row[x]];
+			}
+		}
+	}
+
+	/**
+	 * Checks for a non-premultiplied sRGB raster with one byte per sample,
+	 * all of them interleaved in a single bank.
+	 */
+	private static boolean isInterleavedSRGB( ColorModel cm, Raster raster ) {
+		if ( ! ( cm instanceof ComponentColorModel ) || !cm.getColorSpace().isCS_sRGB() || cm.isAlphaPremultiplied() ) {
+			return false;
+		}
+		if ( ! ( raster.getSampleModel() instanceof PixelInterleavedSampleModel ) || ! ( raster.getDataBuffer() instanceof DataBufferByte ) ) {
+			return false;
+		}
+
+		for ( int size : cm.getComponentSize() ) {
+			if ( size != 8 ) {
+				return false;
+			}
+		}
+
+		return raster.getDataBuffer().getNumBanks() == 1;
+	}
+
+	/**
+	 * Packs the bytes of an interleaved sRGB raster.
+	 */
+	private static void copyInterleaved( Raster raster, boolean alpha, int[] dest ) {
+		int w = raster.getWidth(), h = raster.getHeight();
+		PixelInterleavedSampleModel sm = (PixelInterleavedSampleModel) raster.getSampleModel();
+		DataBufferByte buffer = (DataBufferByte) raster.getDataBuffer();
+		byte[] data = buffer.getData();
+
+		int pixelStride = sm.getPixelStride(), scanlineStride = sm.getScanlineStride();
+		int[] offsets = sm.getBandOffsets();
+		int r = offsets[0], g = offsets[1], b = offsets[2], a = alpha ? offsets[3] : 0;
+
+		int start = buffer.getOffset() - raster.getSampleModelTranslateY() * scanlineStride - raster.getSampleModelTranslateX() * pixelStride;
+
+		for ( int y = 0, i = 0; y < h; y++ ) {
+			int p = start + y * scanlineStride;
+
+			for ( int x = 0; x < w; x++, i++, p += pixelStride ) {
+				int argb = ( ( data[p + r] & 0xff ) << 16 ) | ( ( data[p + g] & 0xff ) << 8 ) | ( data[p + b] & 0xff );
+				dest[i] = argb | ( alpha ? ( data[p + a] & 0xff ) << 24 : 0xff000000 );
+			}
+		}
+	}
+
 	/**
 	 * Loads an image from a file. This is a convience method for
 	 * getImage(InputStream).
@@ -108,7 +247,22 @@ public class ImageUtils {
 	 *         it cannot be loaded
 	 */
 	public static BufferedImage getImage( File file ) throws IOException {
-		return getImage( new FileInputStream( file ) );
+		return getImage( file, false );
+	}
+
+	/**
+	 * Loads an image from a file. This is a convience method for
+	 * getImage(InputStream, boolean).
+	 * 
+	 * @param file the file to load from
+	 * @param keepIndexed whether to return indexed images unconverted
+	 * @return the image in the file or <code>null</code> if it cannot be
+	 *         loaded
+	 */
+	public static BufferedImage getImage( File file, boolean keepIndexed ) throws IOException {
+		try ( InputStream is = new FileInputStream( file ) ) {
+			return getImage( is, keepIndexed );
+		}
 	}
 
 	/**
@@ -125,6 +279,50 @@ public class ImageUtils {
 		return op.filter( img, null );
 	}
 
+	/**
+	 * Shrinks the given image by keeping only every <code>step</code>th pixel
+	 * in both directions (nearest neighbour). No colors are mixed, so dyeing
+	 * the result is the same as shrinking the dyed image.
+	 * 
+	 * @param img the image to shrink
+	 * @param step the distance between kept pixels
+	 * @return a new <code>TYPE_INT_ARGB</code> image
+	 */
+	public static BufferedImage decimate( BufferedImage img, int step ) {
+		if ( step < 1 ) {
+			throw new IllegalArgumentException( "step must be positive" );
+		}
+
+		int w = img.getWidth(), h = img.getHeight();
+		int dw = ( w + step - 1 ) / step, dh = ( h + step - 1 ) / step;
+
+		BufferedImage ret = new BufferedImage( dw, dh, BufferedImage.TYPE_INT_ARGB );
+		int[] dest = getData( ret );
+		int[] src = getData( img );
+
+		if ( src != null ) {
+			for ( int y = 0; y < dh; y++ ) {
+				int row = y * step * w;
+
+				for ( int x = 0; x < dw; x++ ) {
+					dest[y * dw + x] = src[row + x * step];
+				}
+			}
+		} else {
+			int[] row = new int[w];
+
+			for ( int y = 0; y < dh; y++ ) {
+				img.getRGB( 0, y * step, w, 1, row, 0, w );
+
+				for ( int x = 0; x < dw; x++ ) {
+					dest[y * dw + x] = row[x * step];
+				}
+			}
+		}
+
+		return ret;
+	}
+
 	/**
 	 * Resizes the given image. Convience method for
 	 * resize(BufferedImage,double,double).
@@ -141,11 +339,60 @@ public class ImageUtils {
 	 * Copies the given image.
 	 * 
 	 * @param img the image to copy
-	 * @return a copy of the given image
+	 * @return an ARGB copy of the given image
+	 * @see #toARGB(BufferedImage)
 	 */
 	public static BufferedImage copy( BufferedImage img ) {
-		AffineTransformOp op = new AffineTransformOp( new AffineTransform(), AffineTransformOp.TYPE_BICUBIC );
-		return op.filter( img, null );
+		return toARGB( img );
+	}
+
+	/**
+	 * Returns the pixel array backing the given image, if it is a
+	 * <code>TYPE_INT_ARGB</code> image stored as exactly
+	 * <code>width * height</code> rows of packed pixels. Writes to the array
+	 * show up in the image.
+	 * 
+	 * @param img the image
+	 * @return the backing array or <code>null</code> if the image isn't laid
+	 *         out that way
+	 */
+	public static int[] getData( BufferedImage img ) {
+		if ( img.getType() != BufferedImage.TYPE_INT_ARGB ) {
+			return null;
+		}
+
+		WritableRaster raster = img.getRaster();
+		DataBuffer buffer = raster.getDataBuffer();
+
+		if ( ! ( buffer instanceof DataBufferInt ) || buffer.getNumBanks() != 1 || buffer.getOffset() != 0 ) {
+			return null;
+		}
+		if ( raster.getSampleModelTranslateX() != 0 || raster.getSampleModelTranslateY() != 0 ) {
+			return null;
+		}
+		if ( ( (SinglePixelPackedSampleModel) raster.getSampleModel() ).getScanlineStride() != img.getWidth() ) {
+			return null;
+		}
+
+		return ( (DataBufferInt) buffer ).getData();
+	}
+
+	/**
+	 * Returns the pixels of the given image as packed, non-premultiplied ARGB
+	 * values, one row after another. The backing array is returned if possible
+	 * (see {@link #getData(BufferedImage)}), otherwise the pixels are copied.
+	 * 
+	 * @param img the image
+	 * @return the pixels of the image
+	 */
+	public static int[] getPixels( BufferedImage img ) {
+		int[] data = getData( img );
+		if ( data != null ) {
+			return data;
+		}
+
+		int w = img.getWidth(), h = img.getHeight();
+		return img.getRGB( 0, 0, w, h, new int[w * h], 0, w );
 	}
 
 	/**
@@ -0,0 +1,223 @@
+/*
+ *  Copyright (C) 2013  Jared Adams
+ *
+ *  This file is part of ManaDye.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.manasource.util;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A decoded image stored as raw pixels in a file and read through a memory
+ * mapping, so it can be dyed without decoding it or copying it onto the heap
+ * first. The file can also hold the {@link ChannelMap} of the image, which
+ * saves classifying the pixels as well.
+ * <p>
+ * The file starts with a header of six little endian ints: the magic number,
+ * the format version, the width, the height, the flags and a reserved zero.
+ * The packed ARGB pixels follow as little endian ints, one row after another,
+ * and then, if the {@link #FLAG_CHANNELS} flag is set, the channel ordinal
+ * and the intensity of every pixel as bytes.
+ * <p>
+ * The mapping lives until the object is garbage collected, and the file must
+ * not change while it is mapped.
+ */
+public class MappedImage {
+
+	/**
+	 * The first four bytes of the file, "MDYE".
+	 */
+	public static final int MAGIC = 0x4559444d;
+
+	/**
+	 * The format version written by this class.
+	 */
+	public static final int VERSION = 1;
+
+	/**
+	 * Set when the file holds the channels and intensities of the pixels.
+	 */
+	public static final int FLAG_CHANNELS = 1;
+
+	private static final int HEADER_SIZE = 6 * 4;
+
+	private final int width, height;
+
+	private final IntBuffer pixels;
+
+	private final ByteBuffer channels, intensities;
+
+	private MappedImage( int width, int height, IntBuffer pixels, ByteBuffer channels, ByteBuffer intensities ) {
+		this.width = width;
+		this.height = height;
+		this.pixels = pixels;
+		this.channels = channels;
+		this.intensities = intensities;
+	}
+
+	/**
+	 * Stores an image.
+	 * 
+	 * @param img the image to store
+	 * @param file the file to write
+	 * @param withChannels whether to store the channels and intensities too
+	 * @throws IOException if the file can't be written
+	 */
+	public static void write( BufferedImage img, File file, boolean withChannels ) throws IOException {
+		int w = img.getWidth(), h = img.getHeight();
+		int length = w * h;
+		long size = getSize( length, withChannels );
+		if ( size > Integer.MAX_VALUE ) {
+			throw new IOException( "Image too large to map: " + w + "x" + h );
+		}
+
+		try ( RandomAccessFile raf = new RandomAccessFile( file, "rw" ); FileChannel channel = raf.getChannel() ) {
+			raf.setLength( size );
+
+			ByteBuffer header = map( channel, FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE );
+			header.putInt( MAGIC ).putInt( VERSION ).putInt( w ).putInt( h );
+			header.putInt( withChannels ? FLAG_CHANNELS : 0 ).putInt( 0 );
+
+			map( channel, FileChannel.MapMode.READ_WRITE, HEADER_SIZE, length * 4 ).asIntBuffer().put( ImageUtils.getPixels( img ), 0, length );
+
+			if ( withChannels ) {
+				ChannelMap map = ChannelMap.of( img );
+				map( channel, FileChannel.MapMode.READ_WRITE, HEADER_SIZE + length * 4, length ).put( map.channels );
+				map( channel, FileChannel.MapMode.READ_WRITE, HEADER_SIZE + length * 5, length ).put( map.intensities );
+			}
+
+			channel.force( false );
+		}
+	}
+
+	/**
+	 * Maps a stored image.
+	 * 
+	 * @param file the file to map
+	 * @return the mapped image
+	 * @throws IOException if the file can't be read or isn't a stored image
+	 */
+	public static MappedImage open( File file ) throws IOException {
+		try ( RandomAccessFile raf = new RandomAccessFile( file, "r" ); FileChannel channel = raf.getChannel() ) {
+			long size = channel.size();
+			if ( size < HEADER_SIZE ) {
+				throw new IOException( "Not a mapped image: " + file );
+			}
+
+			ByteBuffer header = map( channel, FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE );
+
+			if ( header.getInt( 0 ) != MAGIC ) {
+				throw new IOException( "Not a mapped image: " + file );
+			}
+			int version = header.getInt( 4 );
+			if ( version != VERSION ) {
+				throw new IOException( "Unsupported mapped image version " + version + ": " + file );
+			}
+
+			int w = header.getInt( 8 ), h = header.getInt( 12 );
+			boolean withChannels = ( header.getInt( 16 ) & FLAG_CHANNELS ) != 0;
+
+			if ( w <= 0 || h <= 0 || size != getSize( (long) w * h, withChannels ) || size > Integer.MAX_VALUE ) {
+				throw new IOException( "Corrupt mapped image: " + file );
+			}
+
+			int length = w * h;
+			IntBuffer pixels = map( channel, FileChannel.MapMode.READ_ONLY, HEADER_SIZE, length * 4 ).asIntBuffer();
+
+			ByteBuffer channels = null, intensities = null;
+			if ( withChannels ) {
+				channels = map( channel, FileChannel.MapMode.READ_ONLY, HEADER_SIZE + length * 4, length );
+				intensities = map( channel, FileChannel.MapMode.READ_ONLY, HEADER_SIZE + length * 5, length );
+			}
+
+			return new MappedImage( w, h, pixels, channels, intensities );
+		}
+	}
+
+	private static long getSize( long length, boolean withChannels ) {
+		return HEADER_SIZE + length * 4 + ( withChannels ? length * 2 : 0 );
+	}
+
+	private static ByteBuffer map( FileChannel channel, FileChannel.MapMode mode, long position, long size ) throws IOException {
+		ByteBuffer ret = channel.map( mode, position, size );
+		ret.order( ByteOrder.LITTLE_ENDIAN );
+		return ret;
+	}
+
+	/**
+	 * @return the width of the image
+	 */
+	public int getWidth() {
+		return this.width;
+	}
+
+	/**
+	 * @return the height of the image
+	 */
+	public int getHeight() {
+		return this.height;
+	}
+
+	/**
+	 * @return whether the file holds the channels and intensities too
+	 */
+	public boolean hasChannels() {
+		return this.channels != null;
+	}
+
+	/**
+	 * Dyes the image straight from the mapped file.
+	 * 
+	 * @param dye the dye to apply
+	 * @return a new image that is the dyed version of the stored image
+	 */
+	public BufferedImage recolor( Dye dye ) {
+		long start = DyeMetrics.start();
+		BufferedImage ret = new BufferedImage( this.width, this.height, BufferedImage.TYPE_INT_ARGB );
+		int[] dest = ImageUtils.getData( ret );
+
+		if ( this.channels != null ) {
+			dye.recolorBuffer( this.pixels, this.channels, this.intensities, dest, dest.length );
+		} else {
+			dye.recolorBuffer( this.pixels, dest, dest.length );
+		}
+
+		DyeMetrics.end( DyeMetrics.Operation.RECOLOR, start, dest.length, DyeMetrics.getBytes( ret ) );
+		return ret;
+	}
+
+	/**
+	 * Copies the stored image onto the heap.
+	 * 
+	 * @return a new <code>TYPE_INT_ARGB</code> image
+	 */
+	public BufferedImage toImage() {
+		BufferedImage ret = new BufferedImage( this.width, this.height, BufferedImage.TYPE_INT_ARGB );
+		int[] dest = ImageUtils.getData( ret );
+
+		this.pixels.duplicate().get( dest );
+
+		return ret;
+	}
+}
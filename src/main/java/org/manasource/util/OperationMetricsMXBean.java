@@ -0,0 +1,74 @@
+/*
+ *  Copyright (C) 2013  Jared Adams
+ *
+ *  This file is part of ManaDye.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.manasource.util;
+
+/**
+ * The totals {@link DyeMetrics} keeps for one kind of operation.
+ */
+public interface OperationMetricsMXBean {
+
+	/**
+	 * @return the number of operations completed
+	 */
+	public long getCount();
+
+	/**
+	 * @return the number of pixels handled
+	 */
+	public long getPixels();
+
+	/**
+	 * @return the time spent, in nanoseconds
+	 */
+	public long getTotalNanos();
+
+	/**
+	 * @return the longest operation, in nanoseconds
+	 */
+	public long getMaxNanos();
+
+	/**
+	 * @return the mean time per operation, in milliseconds
+	 */
+	public double getMeanMillis();
+
+	/**
+	 * @return the pixels handled per second spent
+	 */
+	public double getPixelsPerSecond();
+
+	/**
+	 * @return the bytes of image data allocated
+	 */
+	public long getBytesAllocated();
+
+	/**
+	 * Returns the latency histogram. Entry <code>i</code> counts the
+	 * operations that took from 2<sup>i</sup> up to 2<sup>i + 1</sup>
+	 * nanoseconds, the last entry counts anything longer.
+	 * 
+	 * @return a copy of the histogram
+	 */
+	public long[] getLatencyHistogram();
+
+	/**
+	 * Sets every total back to zero.
+	 */
+	public void reset();
+}
@@ -0,0 +1,120 @@
+/*
+ *  Copyright (C) 2013  Jared Adams
+ *
+ *  This file is part of ManaDye.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.manasource.util;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * The pixels of an image as runs of identical packed ARGB values, one row
+ * after another. Runs may continue across rows. See
+ * {@link Dye#recolorRuns(PixelRuns)}.
+ */
+public class PixelRuns {
+
+	private final int width, height;
+
+	final int[] values;
+
+	/**
+	 * The index after the last pixel of each run.
+	 */
+	final int[] ends;
+
+	final int count;
+
+	private PixelRuns( int width, int height, int[] values, int[] ends, int count ) {
+		this.width = width;
+		this.height = height;
+		this.values = values;
+		this.ends = ends;
+		this.count = count;
+	}
+
+	/**
+	 * Finds the runs of an image.
+	 * 
+	 * @param img the image
+	 * @return the runs
+	 */
+	public static PixelRuns of( BufferedImage img ) {
+		int w = img.getWidth(), h = img.getHeight();
+		int[] pixels = ImageUtils.getPixels( img );
+		int length = w * h;
+
+		int[] values = new int[Math.max( 16, length / 16 )];
+		int[] ends = new int[values.length];
+		int count = 0;
+
+		for ( int i = 0; i < length; ) {
+			int argb = pixels[i];
+			int end = i + 1;
+
+			while ( end < length && pixels[end] == argb ) {
+				end++;
+			}
+
+			if ( count == values.length ) {
+				int size = Math.min( length, count * 2 );
+				values = Arrays.copyOf( values, size );
+				ends = Arrays.copyOf( ends, size );
+			}
+
+			values[count] = argb;
+			ends[count] = end;
+			count++;
+
+			i = end;
+		}
+
+		return new PixelRuns( w, h, Arrays.copyOf( values, count ), Arrays.copyOf( ends, count ), count );
+	}
+
+	/**
+	 * @return the width of the image
+	 */
+	public int getWidth() {
+		return this.width;
+	}
+
+	/**
+	 * @return the height of the image
+	 */
+	public int getHeight() {
+		return this.height;
+	}
+
+	/**
+	 * @return the number of runs
+	 */
+	public int getCount() {
+		return this.count;
+	}
+
+	/**
+	 * Returns the average number of pixels in a run. Images with short runs
+	 * (below about 8 pixels) are dyed faster pixel by pixel.
+	 * 
+	 * @return the average run length
+	 */
+	public double getAverageLength() {
+		return this.count == 0 ? 0 : (double) this.width * this.height / this.count;
+	}
+}
@@ -0,0 +1,348 @@
+/*
+ *  Copyright (C) 2013  Jared Adams
+ *
+ *  This file is part of ManaDye.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.manasource.util;
+
+import java.awt.Image;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Vector;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Dyes images too large to hold in memory, from an image file straight to a
+ * PNG file. The source is decoded a band of rows at a time, each band is
+ * dyed and handed to the PNG writer, so at most one band is in memory.
+ * <p>
+ * PNG can't be decoded from the middle, so the reader inflates all the rows
+ * before a band again for every band. Taller bands cost more memory but
+ * less decoding; with the default height a 4096 pixel high image is read 16
+ * times over.
+ */
+public class StreamingDye {
+
+	/**
+	 * The default number of rows dyed at once.
+	 */
+	public static final int DEFAULT_BAND_HEIGHT = 256;
+
+	/**
+	 * Carries read errors out of {@link RenderedImage#getData(Rectangle)}.
+	 */
+	private static class ReadFailure extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		ReadFailure( IOException cause ) {
+			super( cause );
+		}
+	}
+
+	/**
+	 * The dyed source, decoded and dyed band by band as the writer asks for
+	 * rows. Rows are expected roughly in order. Each band is a tile, so
+	 * nothing asks for more than a band at once unless it asks for the whole
+	 * image.
+	 */
+	static class DyedBands implements RenderedImage {
+
+		private final ImageReader reader;
+
+		private final Dye dye;
+
+		private final int width, height, bandHeight;
+
+		private final ColorModel colorModel = ColorModel.getRGBdefault();
+
+		private final SampleModel sampleModel;
+
+		private int bandY = -1;
+
+		private int[] band;
+
+		DyedBands( ImageReader reader, Dye dye, int bandHeight ) throws IOException {
+			this.reader = reader;
+			this.dye = dye;
+			this.width = reader.getWidth( 0 );
+			this.height = reader.getHeight( 0 );
+			this.bandHeight = Math.min( bandHeight, this.height );
+			this.sampleModel = this.colorModel.createCompatibleSampleModel( this.width, this.bandHeight );
+		}
+
+		/**
+		 * Makes sure the band holding the given row is loaded.
+		 */
+		private void load( int y ) {
+			int top = y - y % this.bandHeight;
+			if ( top == this.bandY ) {
+				return;
+			}
+
+			// Drop the old band before decoding the next one
+			this.band = null;
+
+			ImageReadParam param = this.reader.getDefaultReadParam();
+			param.setSourceRegion( new Rectangle( 0, top, this.width, Math.min( this.bandHeight, this.height - top ) ) );
+
+			BufferedImage decoded;
+			try {
+				decoded = this.reader.read( 0, param );
+			} catch ( IOException e ) {
+				throw new ReadFailure( e );
+			}
+
+			int[] pixels = ImageUtils.getData( ImageUtils.toARGBDecoded( decoded ) );
+			this.dye.recolor( pixels, 0, pixels, 0, pixels.length );
+
+			this.band = pixels;
+			this.bandY = top;
+		}
+
+		@Override
+		public WritableRaster copyData( WritableRaster raster ) {
+			if ( raster == null ) {
+				raster = Raster.createWritableRaster( this.sampleModel.createCompatibleSampleModel( this.width, this.height ), new Point() );
+			}
+
+			Rectangle r = raster.getBounds().intersection( getBounds() );
+			int[] row = new int[Math.max( r.width, 0 )];
+
+			for ( int y = r.y; y < r.y + r.height; y++ ) {
+				load( y );
+				System.arraycopy( this.band, ( y - this.bandY ) * this.width + r.x, row, 0, r.width );
+				raster.setDataElements( r.x, y, r.width, 1, row );
+			}
+
+			return raster;
+		}
+
+		private Rectangle getBounds() {
+			return new Rectangle( this.width, this.height );
+		}
+
+		@Override
+		public Raster getData( Rectangle rect ) {
+			WritableRaster ret = Raster.createWritableRaster( this.sampleModel.createCompatibleSampleModel( rect.width, rect.height ), new Point( rect.x, rect.y ) );
+			copyData( ret );
+			return ret;
+		}
+
+		@Override
+		public Raster getData() {
+			return getData( getBounds() );
+		}
+
+		@Override
+		public Raster getTile( int tileX, int tileY ) {
+			int y = tileY * this.bandHeight;
+
+			return getData( new Rectangle( 0, y, this.width, Math.min( this.bandHeight, this.height - y ) ) );
+		}
+
+		@Override
+		public Vector< RenderedImage > getSources() {
+			return null;
+		}
+
+		@Override
+		public Object getProperty( String name ) {
+			return Image.UndefinedProperty;
+		}
+
+		@Override
+		public String[] getPropertyNames() {
+			return null;
+		}
+
+		@Override
+		public ColorModel getColorModel() {
+			return this.colorModel;
+		}
+
+		@Override
+		public SampleModel getSampleModel() {
+			return this.sampleModel;
+		}
+
+		@Override
+		public int getWidth() {
+			return this.width;
+		}
+
+		@Override
+		public int getHeight() {
+			return this.height;
+		}
+
+		@Override
+		public int getMinX() {
+			return 0;
+		}
+
+		@Override
+		public int getMinY() {
+			return 0;
+		}
+
+		@Override
+		public int getNumXTiles() {
+			return 1;
+		}
+
+		@Override
+		public int getNumYTiles() {
+			return ( this.height + this.bandHeight - 1 ) / this.bandHeight;
+		}
+
+		@Override
+		public int getMinTileX() {
+			return 0;
+		}
+
+		@Override
+		public int getMinTileY() {
+			return 0;
+		}
+
+		@Override
+		public int getTileWidth() {
+			return this.width;
+		}
+
+		@Override
+		public int getTileHeight() {
+			return this.bandHeight;
+		}
+
+		@Override
+		public int getTileGridXOffset() {
+			return 0;
+		}
+
+		@Override
+		public int getTileGridYOffset() {
+			return 0;
+		}
+	}
+
+	private StreamingDye() {
+		// Static methods only
+	}
+
+	/**
+	 * Dyes an image file into a PNG file, {@link #DEFAULT_BAND_HEIGHT} rows
+	 * at a time.
+	 * 
+	 * @param dye the dye to apply
+	 * @param in the image to dye
+	 * @param out the PNG file to write
+	 * @return the number of pixels dyed
+	 * @throws IOException if the image can't be read or written
+	 */
+	public static long recolor( Dye dye, File in, File out ) throws IOException {
+		return recolor( dye, in, out, DEFAULT_BAND_HEIGHT );
+	}
+
+	/**
+	 * Dyes an image file into a PNG file, a band of rows at a time.
+	 * 
+	 * @param dye the dye to apply
+	 * @param in the image to dye
+	 * @param out the PNG file to write
+	 * @param bandHeight the number of rows to dye at once
+	 * @return the number of pixels dyed
+	 * @throws IOException if the image can't be read or written
+	 */
+	public static long recolor( Dye dye, File in, File out, int bandHeight ) throws IOException {
+		try ( ImageInputStream iis = ImageIO.createImageInputStream( in ) ) {
+			if ( iis == null ) {
+				throw new IOException( "Cannot read " + in );
+			}
+
+			// Image output streams don't truncate existing files
+			if ( out.exists() && !out.delete() ) {
+				throw new IOException( "Cannot replace " + out );
+			}
+
+			try ( ImageOutputStream ios = ImageIO.createImageOutputStream( out ) ) {
+				if ( ios == null ) {
+					throw new IOException( "Cannot write " + out );
+				}
+
+				return recolor( dye, iis, ios, bandHeight );
+			}
+		}
+	}
+
+	/**
+	 * Dyes an image into a PNG stream, a band of rows at a time. The input
+	 * must be seekable back to the start of the image.
+	 * 
+	 * @param dye the dye to apply
+	 * @param in the image to dye
+	 * @param out where to write the PNG
+	 * @param bandHeight the number of rows to dye at once
+	 * @return the number of pixels dyed
+	 * @throws IOException if the image can't be read or written
+	 */
+	public static long recolor( Dye dye, ImageInputStream in, ImageOutputStream out, int bandHeight ) throws IOException {
+		if ( bandHeight < 1 ) {
+			throw new IllegalArgumentException( "bandHeight must be positive" );
+		}
+
+		Iterator< ImageReader > readers = ImageIO.getImageReaders( in );
+		if ( !readers.hasNext() ) {
+			throw new IOException( "not a readable image" );
+		}
+
+		ImageReader reader = readers.next();
+		ImageWriter writer = ImageIO.getImageWritersByFormatName( "png" ).next();
+
+		try {
+			reader.setInput( in, false, true );
+			writer.setOutput( out );
+
+			DyedBands image = new DyedBands( reader, dye, bandHeight );
+			writer.write( new IIOImage( image, null, null ) );
+
+			return (long) image.getWidth() * image.getHeight();
+		} catch ( ReadFailure e ) {
+			throw (IOException) e.getCause();
+		} finally {
+			reader.dispose();
+			writer.dispose();
+		}
+	}
+}
@@ -0,0 +1,227 @@
+/*
+ *  Copyright (C) 2013  Jared Adams
+ *
+ *  This file is part of ManaDye.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.manasource.pivot;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+import org.manasource.util.Dye;
+import org.manasource.util.DyeCache;
+
+/**
+ * Applies random calls to dyeable images and checks every dyed region
+ * against dyeing the whole source from scratch.
+ */
+public class DyeableImageTest {
+
+	private static final String[] DYES = { "", "W:#000000,#ffffff", "W:#000000,#ffffff;R:#00ff00", "W:#ff0000;R:#00ff00", "R:#00ff00,#0000ff;Y:#808080", "C:#123456;M:#654321" };
+
+	private static final int STEPS = 400;
+
+	private static BufferedImage argb( int width, int height, long seed ) {
+		Random random = new Random( seed );
+		BufferedImage ret = new BufferedImage( width, height, BufferedImage.TYPE_INT_ARGB );
+
+		for ( int y = 0; y < height; y++ ) {
+			for ( int x = 0; x < width; x++ ) {
+				int v = random.nextInt( 256 );
+				int mask = random.nextInt( 9 );
+				int rgb;
+
+				if ( mask == 0 ) {
+					rgb = random.nextInt( 0x1000000 );
+				} else if ( mask == 8 ) {
+					rgb = 0;
+				} else {
+					rgb = ( ( mask & 1 ) != 0 ? v << 16 : 0 ) | ( ( mask & 2 ) != 0 ? v << 8 : 0 ) | ( ( mask & 4 ) != 0 ? v : 0 );
+				}
+
+				ret.setRGB( x, y, ( random.nextInt( 256 ) << 24 ) | rgb );
+			}
+		}
+
+		return ret;
+	}
+
+	private static BufferedImage indexed( int width, int height, long seed ) {
+		BufferedImage ret = new BufferedImage( width, height, BufferedImage.TYPE_BYTE_INDEXED );
+		BufferedImage src = argb( width, height, seed );
+
+		ret.createGraphics().drawImage( src, 0, 0, null );
+
+		return ret;
+	}
+
+	private static Rectangle region( Random random, int width, int height ) {
+		// Sometimes reaching past the edges
+		int x = random.nextInt( width + 8 ) - 4, y = random.nextInt( height + 8 ) - 4;
+
+		return new Rectangle( x, y, random.nextInt( width / 2 + 1 ) + 1, random.nextInt( height / 2 + 1 ) + 1 );
+	}
+
+	static void assertRegion( String message, BufferedImage expected, BufferedImage actual, Rectangle region ) {
+		Rectangle r = region.intersection( new Rectangle( expected.getWidth(), expected.getHeight() ) );
+
+		for ( int y = r.y; y < r.y + r.height; y++ ) {
+			for ( int x = r.x; x < r.x + r.width; x++ ) {
+				if ( expected.getRGB( x, y ) != actual.getRGB( x, y ) ) {
+					assertEquals( message + " at " + x + "," + y, Integer.toHexString( expected.getRGB( x, y ) ), Integer.toHexString( actual.getRGB( x, y ) ) );
+				}
+			}
+		}
+	}
+
+	static void assertImage( String message, BufferedImage expected, BufferedImage actual ) {
+		assertRegion( message, expected, actual, new Rectangle( expected.getWidth(), expected.getHeight() ) );
+	}
+
+	/**
+	 * Checks that no dyed image in the cache was changed in place.
+	 */
+	static void assertCacheIntact( String message, DyeCache dyeCache, BufferedImage source, Map< String, BufferedImage > expected ) {
+		for ( String dye : DYES ) {
+			BufferedImage cached = dyeCache.get( new Dye( dye ), source );
+
+			if ( cached != null ) {
+				assertImage( message + ", cached " + dye, expected.get( dye ), cached );
+			}
+		}
+	}
+
+	static Map< String, BufferedImage > expected( BufferedImage source ) {
+		Map< String, BufferedImage > ret = new HashMap< String, BufferedImage >();
+
+		for ( String dye : DYES ) {
+			ret.put( dye, new Dye( dye ).recolor( source ) );
+		}
+
+		return ret;
+	}
+
+	private static void check( BufferedImage source, int tileWidth, int tileHeight, long seed ) {
+		Random random = new Random( seed );
+		Map< String, BufferedImage > expected = expected( source );
+		DyeableImage image = new DyeableImage( source, tileWidth, tileHeight );
+		DyeCache dyeCache = new DyeCache( 1 << 20 );
+		int w = source.getWidth(), h = source.getHeight();
+		String dye = "";
+
+		// Images handed over as shared, with the dyes they show
+		List< BufferedImage > shared = new ArrayList< BufferedImage >();
+		List< String > sharedDyes = new ArrayList< String >();
+
+		for ( int step = 0; step < STEPS; step++ ) {
+			String message = "step " + step + ", dye " + dye;
+
+			int op = random.nextInt( 6 );
+
+			if ( op < 2 ) {
+				int d = random.nextInt( DYES.length + 1 );
+				// No dye at all dyes like the empty dye
+				dye = d == DYES.length ? "" : DYES[d];
+				image.setDye( d == DYES.length ? null : new Dye( dye ) );
+			} else if ( op == 2 ) {
+				image.setDyeCache( random.nextBoolean() ? dyeCache : null );
+			} else if ( op == 3 ) {
+				Rectangle region = region( random, w, h );
+				assertRegion( message, expected.get( dye ), image.getCache( region ), region );
+			} else if ( op == 4 ) {
+				assertImage( message, expected.get( dye ), image.getCache() );
+			} else {
+				// Handed an image dyed elsewhere, like a DyeWorker does
+				dye = DYES[random.nextInt( DYES.length )];
+
+				if ( random.nextBoolean() ) {
+					BufferedImage dyed = dyeCache.recolor( new Dye( dye ), source );
+					image.setDye( new Dye( dye ), dyed, true );
+					shared.add( dyed );
+					sharedDyes.add( dye );
+				} else {
+					image.setDye( new Dye( dye ), new Dye( dye ).recolor( source ), false );
+				}
+			}
+
+			assertCacheIntact( message, dyeCache, source, expected );
+			for ( int i = 0; i < shared.size(); i++ ) {
+				assertImage( message + ", shared " + sharedDyes.get( i ), expected.get( sharedDyes.get( i ) ), shared.get( i ) );
+			}
+		}
+	}
+
+	@Test
+	public void neverDyesCachedImagesInPlace() {
+		BufferedImage source = argb( 70, 50, 5 );
+		Map< String, BufferedImage > expected = expected( source );
+		DyeCache dyeCache = new DyeCache( 1 << 20 );
+
+		// Dyed through the cache, then without it
+		DyeableImage image = new DyeableImage( source, 16, 16 );
+		image.setDyeCache( dyeCache );
+
+		for ( int i = 1; i < 4; i++ ) {
+			image.setDye( new Dye( DYES[i] ) );
+			assertImage( "dyed", expected.get( DYES[i] ), image.getCache() );
+		}
+
+		image.setDyeCache( null );
+		image.setDye( new Dye( DYES[4] ) );
+		assertImage( "dyed", expected.get( DYES[4] ), image.getCache() );
+		assertCacheIntact( "dyed", dyeCache, source, expected );
+
+		// Handed an image from the cache by someone else, while the image
+		// would otherwise redye its cache by channel
+		image = new DyeableImage( source, 16, 16 );
+		image.setDye( new Dye( DYES[1] ) );
+		image.getCache();
+		image.setDye( new Dye( DYES[2] ) );
+		image.getCache();
+		image.setDye( new Dye( DYES[3] ), dyeCache.recolor( new Dye( DYES[3] ), source ), true );
+
+		for ( int i = 0; i < DYES.length; i++ ) {
+			image.setDye( new Dye( DYES[i] ) );
+			assertImage( "handed", expected.get( DYES[i] ), image.getCache() );
+			assertCacheIntact( "handed", dyeCache, source, expected );
+		}
+	}
+
+	@Test
+	public void argbMatchesRecolor() {
+		check( argb( 70, 50, 1 ), 16, 16, 1 );
+		check( argb( 33, 17, 2 ), 8, 32, 2 );
+	}
+
+	@Test
+	public void indexedMatchesRecolor() {
+		check( indexed( 70, 50, 3 ), 16, 16, 3 );
+	}
+
+	@Test
+	public void singleTileMatchesRecolor() {
+		check( argb( 20, 20, 4 ), 128, 128, 4 );
+	}
+}
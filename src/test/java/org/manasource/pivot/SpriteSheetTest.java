@@ -0,0 +1,91 @@
+/*
+ *  Copyright (C) 2013  Jared Adams
+ *
+ *  This file is part of ManaDye.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.manasource.pivot;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.pivot.wtk.media.Image;
+import org.apache.pivot.wtk.media.ImageListener;
+import org.junit.Test;
+import org.manasource.util.Dye;
+
+/**
+ * Checks that frame images repaint with the sheet's dye.
+ */
+public class SpriteSheetTest {
+
+	private static class Updates implements ImageListener {
+
+		final List< String > regions = new ArrayList< String >();
+
+		@Override
+		public void sizeChanged( Image image, int previousWidth, int previousHeight ) {
+			// Nothing
+		}
+
+		@Override
+		public void baselineChanged( Image image, int previousBaseline ) {
+			// Nothing
+		}
+
+		@Override
+		public void regionUpdated( Image image, int x, int y, int width, int height ) {
+			this.regions.add( x + "," + y + " " + width + "x" + height );
+		}
+	}
+
+	@Test
+	public void framesRepaintOnDyeChange() {
+		BufferedImage source = new BufferedImage( 40, 20, BufferedImage.TYPE_INT_ARGB );
+		for ( int x = 0; x < 40; x++ ) {
+			for ( int y = 0; y < 20; y++ ) {
+				source.setRGB( x, y, 0xff000000 | ( ( x * 6 ) << 16 ) | ( y * 12 ) );
+			}
+		}
+
+		SpriteSheet sheet = new SpriteSheet( source, 16, 16 );
+		SpriteSheet.Frame frame = sheet.getFrameImage( 1 );
+		assertSame( frame, sheet.getFrameImage( 1 ) );
+
+		Updates updates = new Updates();
+		frame.getImageListeners().add( updates );
+		sheet.getFrame( 1 );
+
+		Dye dye = new Dye( "R:#00ff00;B:#ff0000" );
+		sheet.setDye( dye );
+
+		assertEquals( 1, updates.regions.size() );
+		assertEquals( "0,0 16x16", updates.regions.get( 0 ) );
+
+		// The repaint sees the new dye, not the frame cut before
+		BufferedImage expected = dye.recolor( source ).getSubimage( 16, 0, 16, 16 );
+		assertArrayEquals( expected.getRGB( 0, 0, 16, 16, null, 0, 16 ), sheet.getFrame( 1 ).getRGB( 0, 0, 16, 16, null, 0, 16 ) );
+
+		// Unchanged dyes don't repaint
+		sheet.setDye( new Dye( "R:#00ff00;B:#ff0000" ) );
+		assertEquals( 1, updates.regions.size() );
+	}
+}
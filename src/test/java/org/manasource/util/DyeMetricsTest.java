@@ -0,0 +1,101 @@
+/*
+ *  Copyright (C) 2013  Jared Adams
+ *
+ *  This file is part of ManaDye.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.manasource.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DyeMetricsTest {
+
+	private final List< Long > bytes = new ArrayList< Long >();
+
+	private DyeCache cache;
+
+	private boolean locked;
+
+	private final DyeMetricsListener listener = new DyeMetricsListener.Adapter() {
+
+		@Override
+		public void operationCompleted( DyeMetrics.Operation operation, long nanos, long pixels, long bytes ) {
+			if ( operation == DyeMetrics.Operation.RECOLOR ) {
+				DyeMetricsTest.this.bytes.add( bytes );
+			}
+		}
+
+		@Override
+		public void cacheAccessed( DyeMetrics.Cache cache, boolean hit ) {
+			DyeMetricsTest.this.locked |= Thread.holdsLock( DyeMetricsTest.this.cache );
+		}
+	};
+
+	@Before
+	public void enable() {
+		DyeMetrics.setEnabled( true );
+		DyeMetrics.addListener( this.listener );
+	}
+
+	@After
+	public void disable() {
+		DyeMetrics.removeListener( this.listener );
+		DyeMetrics.setEnabled( false );
+	}
+
+	@Test
+	public void countsCopiedPixels() {
+		Dye dye = new Dye( "R:#00ff00" );
+		BufferedImage abgr = new BufferedImage( 16, 8, BufferedImage.TYPE_4BYTE_ABGR );
+		BufferedImage argb = new BufferedImage( 16, 8, BufferedImage.TYPE_INT_ARGB );
+		long size = 16 * 8 * 4;
+
+		// The pixels of a non-ARGB source are copied either way
+		dye.recolorInto( abgr, argb );
+		dye.recolorRegion( abgr, argb, new Rectangle( 16, 8 ) );
+		// Nothing is copied between ARGB images
+		dye.recolorInto( argb, new BufferedImage( 16, 8, BufferedImage.TYPE_INT_ARGB ) );
+		// A new image, and a copy of the source
+		dye.recolor( abgr );
+
+		assertEquals( size, this.bytes.get( 0 ).longValue() );
+		assertEquals( size, this.bytes.get( 1 ).longValue() );
+		assertEquals( 0, this.bytes.get( 2 ).longValue() );
+		assertEquals( 2 * size, this.bytes.get( 3 ).longValue() );
+	}
+
+	@Test
+	public void notifiesCacheListenersOutsideTheLock() {
+		this.cache = new DyeCache( 1 << 20 );
+		BufferedImage source = new BufferedImage( 8, 8, BufferedImage.TYPE_INT_ARGB );
+
+		this.cache.recolor( new Dye( "R:#00ff00" ), source );
+		this.cache.recolor( new Dye( "R:#00ff00" ), source );
+
+		assertEquals( 1, this.cache.getHits() );
+		assertFalse( this.locked );
+	}
+}
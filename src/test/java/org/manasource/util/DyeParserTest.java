@@ -0,0 +1,185 @@
+/*
+ *  Copyright (C) 2013  Jared Adams
+ *
+ *  This file is part of ManaDye.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.manasource.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.awt.Color;
+import java.util.EnumMap;
+
+import org.junit.Test;
+import org.manasource.util.Dye.Channel;
+import org.manasource.util.Dye.Palette;
+
+/**
+ * Pins the behaviour of the original <code>String.split</code> based
+ * parser, including its quirks.
+ */
+public class DyeParserTest {
+
+	private static int[] rgbs( Palette palette ) {
+		Color[] colors = palette.getColors();
+		int[] ret = new int[colors.length];
+
+		for ( int i = 0; i < ret.length; i++ ) {
+			ret[i] = colors[i].getRGB() & 0xffffff;
+		}
+
+		return ret;
+	}
+
+	private static void assertPalette( EnumMap< Channel, Palette > palettes, Channel channel, int... rgbs ) {
+		assertArrayEquals( channel.name(), rgbs, rgbs( palettes.get( channel ) ) );
+	}
+
+	private static void assertBad( String data ) {
+		try {
+			Dye.parsePalettes( data );
+			fail( "parsed " + data );
+		} catch ( IllegalArgumentException e ) {
+			// Expected
+		}
+		assertNull( Dye.tryParse( data ) );
+	}
+
+	@Test
+	public void parsesPalettes() {
+		EnumMap< Channel, Palette > palettes = Dye.parsePalettes( "W:#000000,#ffffff;Y:#123456" );
+
+		assertEquals( 2, palettes.size() );
+		assertPalette( palettes, Channel.W, 0x000000, 0xffffff );
+		assertPalette( palettes, Channel.Y, 0x123456 );
+	}
+
+	@Test
+	public void ignoresTrailingSegments() {
+		EnumMap< Channel, Palette > palettes = Dye.parsePalettes( "R:#ff0000;" );
+
+		assertEquals( 1, palettes.size() );
+		assertPalette( palettes, Channel.R, 0xff0000 );
+
+		palettes = Dye.parsePalettes( "R:#ff0000," );
+		assertPalette( palettes, Channel.R, 0xff0000 );
+	}
+
+	@Test
+	public void rejectsEmptySegments() {
+		assertBad( "R:#ff0000;;G:#00ff00" );
+		assertBad( ";R:#ff0000" );
+		assertBad( "R:#ff0000;G" );
+	}
+
+	@Test
+	public void skipsEmptyPalettes() {
+		assertEquals( 0, Dye.parsePalettes( "R:" ).size() );
+		assertEquals( 0, Dye.parsePalettes( "" ).size() );
+	}
+
+	@Test
+	public void dropsBadHexValues() {
+		// Bad colors are left out rather than rejected
+		assertPalette( Dye.parsePalettes( "R:#gg0000" ), Channel.R );
+		assertPalette( Dye.parsePalettes( "R:ff0000" ), Channel.R );
+	}
+
+	@Test
+	public void decodesShortAndLongHexValues() {
+		// Digits are read as one number, like Color.decode does
+		assertPalette( Dye.parsePalettes( "R:#fff" ), Channel.R, 0x000fff );
+		assertPalette( Dye.parsePalettes( "R:#12345" ), Channel.R, 0x012345 );
+		assertPalette( Dye.parsePalettes( "R:#1234567" ), Channel.R, 0x234567 );
+	}
+
+	@Test
+	public void mapsUnknownChannelsToNone() {
+		assertPalette( Dye.parsePalettes( "Q:#ff0000" ), Channel.NONE, 0xff0000 );
+	}
+
+	@Test
+	public void resolvesListedChannels() {
+		Object[] resolved = Dye.resolveDyes( "hat.png|W;Y", "#000000;#ffffff" );
+
+		assertEquals( "hat.png", resolved[0] );
+		assertEquals( new Dye( "W:#000000;Y:#ffffff" ), resolved[1] );
+
+		resolved = Dye.resolveDyes( "a/b.png|R:#ff0000;G", "#00ff00" );
+
+		assertEquals( "a/b.png", resolved[0] );
+		assertEquals( new Dye( "R:#ff0000;G:#00ff00" ), resolved[1] );
+	}
+
+	@Test
+	public void resolvesNameWithoutChannels() {
+		// "name|" declares one unnamed channel
+		Object[] resolved = Dye.resolveDyes( "hat.png|", "#ff0000" );
+
+		EnumMap< Channel, Palette > none = new EnumMap< Channel, Palette >( Channel.class );
+		none.put( Channel.NONE, new Palette( new Color[] { Color.RED } ) );
+
+		assertEquals( "hat.png", resolved[0] );
+		assertEquals( new Dye( none ), resolved[1] );
+		assertEquals( new Dye( "" ), Dye.resolveDyes( "hat.png|", "" )[1] );
+
+		try {
+			Dye.resolveDyes( "hat.png|", "#ff0000;#00ff00" );
+			fail( "resolved more palettes than channels" );
+		} catch ( IllegalArgumentException e ) {
+			// Expected
+		}
+	}
+
+	@Test
+	public void resolvesWithoutChannels() {
+		assertEquals( new Dye( "R:#ff0000" ), Dye.resolveDyes( "hat.png", "R:#ff0000" )[1] );
+
+		// An empty palette given by the channel list is kept
+		EnumMap< Channel, Palette > empty = new EnumMap< Channel, Palette >( Channel.class );
+		empty.put( Channel.W, new Palette( new Color[0] ) );
+
+		assertEquals( new Dye( empty ), Dye.resolveDyes( "hat.png|W:", "" )[1] );
+
+		try {
+			Dye.resolveDyes( "hat.png", "#ff0000" );
+			fail( "resolved a palette without a channel" );
+		} catch ( IllegalArgumentException e ) {
+			// Expected
+		}
+	}
+
+	@Test
+	public void internKeepsRecentlyUsedDyes() {
+		Dye used = Dye.valueOf( "R:#010203" );
+		Dye unused = Dye.valueOf( "R:#040506" );
+
+		// Enough other dyes to overflow the interned descriptions twice
+		for ( int i = 0; i < 2 * 4096; i++ ) {
+			Dye.valueOf( "G:#" + Integer.toHexString( 0x1000000 | i ).substring( 1 ) );
+			assertSame( used, Dye.valueOf( "R:#010203" ) );
+		}
+
+		assertSame( used, Dye.tryParse( "R:#010203" ) );
+		assertNotSame( unused, Dye.valueOf( "R:#040506" ) );
+	}
+}
@@ -0,0 +1,385 @@
+/*
+ *  Copyright (C) 2013  Jared Adams
+ *
+ *  This file is part of ManaDye.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.manasource.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+import org.manasource.util.Dye.Channel;
+import org.manasource.util.Dye.Palette;
+
+public class DyeTest {
+
+	private static final String[] DYES = { "", "R:#00ff00", "W:#000000,#ffffff;Y:#123456", "R:#1;G:#2,#3;B:#4;C:#5;M:#6;Y:#7;W:#8,#9,#a", "G:;B:#gg0000" };
+
+	private static final int[] TYPES = { BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_INT_ARGB_PRE };
+
+	/**
+	 * Dyes a color the way the original, <code>Color</code> based,
+	 * implementation did.
+	 */
+	private static Color reference( EnumMap< Channel, Palette > palettes, Color in ) {
+		int r = in.getRed(), g = in.getGreen(), b = in.getBlue();
+		int cmax = Math.max( r, Math.max( g, b ) );
+		int cmin = Math.min( r, Math.min( g, b ) );
+		int sum = r + g + b;
+
+		Channel channel;
+		if ( cmax == 0 || cmin != cmax && ( cmin != 0 || ( sum != cmax && sum != 2 * cmax ) ) ) {
+			channel = Channel.NONE;
+		} else {
+			channel = Channel.values()[( ( r != 0 ? 1 : 0 ) | ( g != 0 ? 2 : 0 ) | ( b != 0 ? 4 : 0 ) ) - 1];
+		}
+
+		Palette p = palettes.get( channel );
+		if ( p == null ) {
+			return in;
+		}
+
+		Color ret = p.getColor( cmax, in.getAlpha() );
+		return ret == null ? in : ret;
+	}
+
+	/**
+	 * Every pure color at every intensity, black, and random colors with
+	 * random alpha.
+	 */
+	private static int[] pixels() {
+		Random random = new Random( 1 );
+		int[] ret = new int[64 * 64];
+		int n = 0;
+
+		for ( int mask = 1; mask < 8; mask++ ) {
+			for ( int v = 0; v < 256; v++ ) {
+				int rgb = ( ( mask & 1 ) != 0 ? v << 16 : 0 ) | ( ( mask & 2 ) != 0 ? v << 8 : 0 ) | ( ( mask & 4 ) != 0 ? v : 0 );
+				ret[n++] = ( random.nextInt( 256 ) << 24 ) | rgb;
+			}
+		}
+		while ( n < ret.length ) {
+			ret[n++] = random.nextInt();
+		}
+
+		return ret;
+	}
+
+	private static BufferedImage image( int type ) {
+		BufferedImage ret = new BufferedImage( 64, 64, type );
+		ret.setRGB( 0, 0, 64, 64, pixels(), 0, 64 );
+		return ret;
+	}
+
+	private static void assertDyed( String dye, BufferedImage img, BufferedImage dyed ) {
+		EnumMap< Channel, Palette > palettes = Dye.parsePalettes( dye );
+
+		for ( int y = 0; y < img.getHeight(); y++ ) {
+			for ( int x = 0; x < img.getWidth(); x++ ) {
+				Color expected = reference( palettes, new Color( img.getRGB( x, y ), true ) );
+				assertEquals( dye + " at " + x + "," + y, Integer.toHexString( expected.getRGB() ), Integer.toHexString( dyed.getRGB( x, y ) ) );
+			}
+		}
+	}
+
+	/**
+	 * Checks dyed pixels against dyeing each source pixel with
+	 * {@link Dye#update(int)}.
+	 */
+	private static void assertUpdated( String message, Dye dye, int[] src, int srcPos, int[] dest, int destPos, int length ) {
+		for ( int i = 0; i < length; i++ ) {
+			int expected = dye.update( src[srcPos + i] );
+
+			if ( dest[destPos + i] != expected ) {
+				assertEquals( message + " at " + i, Integer.toHexString( expected ), Integer.toHexString( dest[destPos + i] ) );
+			}
+		}
+	}
+
+	private static void assertUpdated( String message, Dye dye, BufferedImage img, BufferedImage dyed ) {
+		int[] src = ImageUtils.getPixels( img );
+		assertUpdated( message, dye, src, 0, ImageUtils.getPixels( dyed ), 0, src.length );
+	}
+
+	/**
+	 * Runs of identical pixels of random lengths, including transparent
+	 * black and other fully transparent colors.
+	 */
+	private static BufferedImage runs( int width, int height ) {
+		Random random = new Random( 2 );
+		int[] colors = pixels();
+		BufferedImage ret = new BufferedImage( width, height, BufferedImage.TYPE_INT_ARGB );
+		int[] data = ImageUtils.getData( ret );
+
+		for ( int i = 0; i < data.length; ) {
+			int argb = random.nextInt( 3 ) == 0 ? 0 : colors[random.nextInt( colors.length )];
+			if ( random.nextInt( 8 ) == 0 ) {
+				argb &= 0xffffff;
+			}
+
+			int end = Math.min( data.length, i + 1 + random.nextInt( 40 ) );
+			Arrays.fill( data, i, end, argb );
+			i = end;
+		}
+
+		return ret;
+	}
+
+	@Test
+	public void updateMatchesColorPath() {
+		for ( String dye : DYES ) {
+			Dye d = new Dye( dye );
+			EnumMap< Channel, Palette > palettes = Dye.parsePalettes( dye );
+
+			for ( int argb : pixels() ) {
+				Color in = new Color( argb, true );
+				assertEquals( dye, reference( palettes, in ).getRGB(), d.update( in ).getRGB() );
+				assertEquals( dye, reference( palettes, in ).getRGB(), d.update( argb ) );
+			}
+		}
+	}
+
+	@Test
+	public void recolorMatchesColorPath() {
+		for ( String dye : DYES ) {
+			Dye d = new Dye( dye );
+
+			for ( int type : TYPES ) {
+				BufferedImage img = image( type );
+				assertDyed( dye, img, d.recolor( img ) );
+				assertDyed( dye, img, d.recolorInto( img, new BufferedImage( 64, 64, BufferedImage.TYPE_INT_ARGB ) ) );
+			}
+		}
+	}
+
+	@Test
+	public void recolorIndexedMatchesColorPath() {
+		for ( String dye : DYES ) {
+			BufferedImage img = image( BufferedImage.TYPE_BYTE_INDEXED );
+			assertDyed( dye, img, new Dye( dye ).recolor( img ) );
+		}
+	}
+
+	@Test
+	public void recolorInParallelMatchesColorPath() {
+		ForkJoinPool pool = new ForkJoinPool( 2 );
+		BufferedImage img = new BufferedImage( 512, 512, BufferedImage.TYPE_INT_ARGB );
+		int[] pixels = pixels();
+
+		for ( int y = 0; y < 512; y += 8 ) {
+			img.setRGB( 0, y, 512, 8, pixels, 0, 512 );
+		}
+
+		try {
+			for ( String dye : DYES ) {
+				assertDyed( dye, img, new Dye( dye ).recolor( img, pool ) );
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void classifyMatchesCompute() {
+		Random random = new Random( 1 );
+		int[] colors = new int[Dye.BLOCK_PIXELS];
+
+		for ( int from = 0; from < 1 << 24; from += colors.length ) {
+			for ( int i = 0; i < colors.length; i++ ) {
+				colors[i] = ( random.nextInt( 256 ) << 24 ) | ( from + i );
+			}
+
+			Channel.classify( colors, colors.length );
+
+			for ( int i = 0; i < colors.length; i++ ) {
+				int rgb = from + i;
+				int expected = ( Channel.compute( rgb ) << 8 ) | Channel.getIntensity( rgb );
+
+				if ( colors[i] != expected ) {
+					assertEquals( Integer.toHexString( rgb ), Integer.toHexString( expected ), Integer.toHexString( colors[i] ) );
+				}
+				if ( Channel.classify( rgb ) != Channel.compute( rgb ) ) {
+					assertEquals( Integer.toHexString( rgb ), Channel.compute( rgb ), Channel.classify( rgb ) );
+				}
+			}
+		}
+	}
+
+	@Test
+	public void recolorBlockedMatchesUpdate() {
+		int[] pixels = pixels();
+		// Not a multiple of the block size, and offset in both arrays
+		int length = Dye.BLOCK_PIXELS + 3;
+		int[] src = new int[length + 1];
+		int[] dest = new int[length + 2];
+
+		for ( int i = 0; i < length; i++ ) {
+			src[i + 1] = pixels[i % pixels.length];
+		}
+
+		for ( String dye : DYES ) {
+			Dye d = new Dye( dye );
+			d.recolorBlocked( src, 1, dest, 2, length );
+
+			for ( int i = 0; i < length; i++ ) {
+				assertEquals( dye, d.update( src[i + 1] ), dest[i + 2] );
+			}
+		}
+	}
+
+	@Test
+	public void recolorRunsMatchesUpdate() {
+		BufferedImage[] images = { runs( 67, 45 ), image( BufferedImage.TYPE_INT_ARGB ), image( BufferedImage.TYPE_4BYTE_ABGR ) };
+
+		for ( BufferedImage img : images ) {
+			int[] src = ImageUtils.getPixels( img );
+			PixelRuns runs = PixelRuns.of( img );
+
+			for ( String dye : DYES ) {
+				Dye d = new Dye( dye );
+				assertUpdated( dye, d, img, d.recolorRuns( runs ) );
+
+				// Transparent black runs have to be written into a used array
+				int[] dest = new int[src.length];
+				Arrays.fill( dest, 0x12345678 );
+				d.recolorRuns( runs, dest );
+				assertUpdated( dye, d, src, 0, dest, 0, src.length );
+			}
+		}
+	}
+
+	@Test
+	public void recolorMappedMatchesUpdate() {
+		Random random = new Random( 1 );
+		BufferedImage img = new BufferedImage( 256, 256, BufferedImage.TYPE_INT_ARGB );
+		int[] src = ImageUtils.getData( img );
+
+		// Every color, a block at a time
+		for ( int from = 0; from < 1 << 24; from += src.length ) {
+			for ( int i = 0; i < src.length; i++ ) {
+				src[i] = ( random.nextInt( 256 ) << 24 ) | ( from + i );
+			}
+
+			ChannelMap map = ChannelMap.of( img );
+
+			for ( String dye : DYES ) {
+				Dye d = new Dye( dye );
+				assertUpdated( dye, d, src, 0, ImageUtils.getData( d.recolorMapped( map ) ), 0, src.length );
+			}
+		}
+	}
+
+	@Test
+	public void recolorMappedRegionMatchesUpdate() {
+		Random random = new Random( 3 );
+
+		for ( int type : TYPES ) {
+			BufferedImage img = image( type );
+			int[] src = ImageUtils.getPixels( img );
+			ChannelMap map = ChannelMap.of( img );
+
+			for ( String dye : DYES ) {
+				Dye d = new Dye( dye );
+
+				// Part of a run, at offsets
+				int[] dest = new int[src.length + 2];
+				d.recolorMapped( map, 5, dest, 2, src.length - 5 );
+				assertUpdated( dye, d, src, 5, dest, 2, src.length - 5 );
+
+				// Regions that cover the image, into an ARGB image and one
+				// that has to be written with setRGB
+				BufferedImage[] dests = { new BufferedImage( 64, 64, BufferedImage.TYPE_INT_ARGB ), new BufferedImage( 64, 64, BufferedImage.TYPE_4BYTE_ABGR ) };
+				for ( BufferedImage to : dests ) {
+					for ( int y = -8; y < 64; y += 24 ) {
+						for ( int x = -8; x < 64; x += 24 ) {
+							d.recolorMappedRegion( map, to, new Rectangle( x, y, 24 + random.nextInt( 8 ), 24 + random.nextInt( 8 ) ) );
+						}
+					}
+					assertUpdated( dye, d, img, to );
+				}
+			}
+		}
+	}
+
+	@Test
+	public void recolorChangedMatchesUpdate() {
+		BufferedImage img = image( BufferedImage.TYPE_INT_ARGB );
+		ChannelMap map = ChannelMap.of( img );
+
+		for ( String from : DYES ) {
+			for ( String to : DYES ) {
+				Dye previous = new Dye( from ), d = new Dye( to );
+				BufferedImage[] dests = { previous.recolor( img ), new BufferedImage( 64, 64, BufferedImage.TYPE_4BYTE_ABGR ) };
+				dests[1].setRGB( 0, 0, 64, 64, ImageUtils.getPixels( dests[0] ), 0, 64 );
+
+				for ( BufferedImage dest : dests ) {
+					assertUpdated( from + " to " + to, d, img, d.recolorChanged( map, previous, dest ) );
+				}
+			}
+		}
+	}
+
+	@Test
+	public void recolorAllMatchesUpdate() {
+		List< Dye > dyes = new ArrayList< Dye >();
+		for ( String dye : DYES ) {
+			dyes.add( new Dye( dye ) );
+		}
+
+		// More than one block and not a multiple of it, at offsets
+		int[] pixels = pixels();
+		int length = 2 * Dye.BLOCK_PIXELS + 5;
+		int[] src = new int[length + 3];
+		for ( int i = 0; i < length; i++ ) {
+			src[i + 3] = pixels[i % pixels.length];
+		}
+
+		for ( int count = 1; count <= dyes.size(); count++ ) {
+			int[][] dest = new int[count][length + 1];
+			Dye.recolorAll( src, 3, dyes.subList( 0, count ), dest, 1, length );
+
+			for ( int k = 0; k < count; k++ ) {
+				assertUpdated( DYES[k] + " of " + count, dyes.get( k ), src, 3, dest[k], 1, length );
+			}
+		}
+
+		for ( int type : TYPES ) {
+			BufferedImage img = image( type );
+			BufferedImage[] dyed = Dye.recolorAll( img, dyes );
+
+			for ( int k = 0; k < dyed.length; k++ ) {
+				assertUpdated( DYES[k], dyes.get( k ), img, dyed[k] );
+			}
+		}
+
+		BufferedImage indexed = image( BufferedImage.TYPE_BYTE_INDEXED );
+		BufferedImage[] dyed = Dye.recolorAll( indexed, dyes );
+		for ( int k = 0; k < dyed.length; k++ ) {
+			assertDyed( DYES[k], indexed, dyed[k] );
+		}
+	}
+}
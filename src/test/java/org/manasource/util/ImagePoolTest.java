@@ -0,0 +1,96 @@
+/*
+ *  Copyright (C) 2013  Jared Adams
+ *
+ *  This file is part of ManaDye.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.manasource.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.awt.image.BufferedImage;
+
+import org.junit.Test;
+
+public class ImagePoolTest {
+
+	private static BufferedImage image( int width, int height ) {
+		return new BufferedImage( width, height, BufferedImage.TYPE_INT_ARGB );
+	}
+
+	@Test
+	public void reusesReleasedImages() {
+		ImagePool pool = new ImagePool( 2 );
+		BufferedImage a = image( 8, 8 ), b = image( 8, 8 ), c = image( 8, 8 );
+
+		pool.release( a );
+		pool.release( b );
+		// Over the limit for the size
+		pool.release( c );
+
+		assertEquals( 2 * 8 * 8 * 4, pool.getBytes() );
+		assertSame( b, pool.acquire( 8, 8 ) );
+		assertSame( a, pool.acquire( 8, 8 ) );
+		assertEquals( 0, pool.getBytes() );
+		assertNotSame( c, pool.acquire( 8, 8 ) );
+	}
+
+	@Test
+	public void ignoresOtherImages() {
+		ImagePool pool = new ImagePool( 2 );
+
+		pool.release( null );
+		pool.release( new BufferedImage( 8, 8, BufferedImage.TYPE_4BYTE_ABGR ) );
+
+		assertEquals( 0, pool.getBytes() );
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsedSizes() {
+		// Room for three 16x16 images
+		ImagePool pool = new ImagePool( 4, 3 * 16 * 16 * 4 );
+		BufferedImage a = image( 16, 16 ), b = image( 16, 8 ), c = image( 8, 16 );
+
+		pool.release( a );
+		pool.release( b );
+		pool.release( c );
+
+		// Uses the 16x16 size again, so 16x8 is the least recently used
+		assertSame( a, pool.acquire( 16, 16 ) );
+		pool.release( a );
+		pool.release( image( 16, 16 ) );
+		pool.release( image( 16, 16 ) );
+
+		assertEquals( 3 * 16 * 16 * 4, pool.getBytes() );
+		assertNotSame( b, pool.acquire( 16, 8 ) );
+		assertNotSame( c, pool.acquire( 8, 16 ) );
+	}
+
+	@Test
+	public void staysWithinBytes() {
+		long max = 64 * 64 * 4;
+		ImagePool pool = new ImagePool( 8, max );
+
+		for ( int i = 1; i <= 200; i++ ) {
+			pool.release( image( i, 1 + i % 7 ) );
+			pool.release( image( 65, 65 ) );
+
+			assertEquals( true, pool.getBytes() <= max );
+		}
+	}
+}
@@ -0,0 +1,182 @@
+/*
+ *  Copyright (C) 2013  Jared Adams
+ *
+ *  This file is part of ManaDye.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.manasource.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Writes images to files, maps them back, and dyes them.
+ */
+public class MappedImageTest {
+
+	private static final String[] DYES = { "", "R:#00ff00", "W:#000000,#ffffff;Y:#123456", "R:#1;G:#2,#3;B:#4;C:#5;M:#6;Y:#7;W:#8,#9,#a" };
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Pure colors in every channel and random colors, with random alpha.
+	 */
+	private static BufferedImage image( int width, int height, int type ) {
+		Random random = new Random( 1 );
+		BufferedImage ret = new BufferedImage( width, height, type );
+
+		for ( int y = 0; y < height; y++ ) {
+			for ( int x = 0; x < width; x++ ) {
+				int v = random.nextInt( 256 ), mask = random.nextInt( 8 );
+				int rgb = mask == 0 ? random.nextInt( 0x1000000 ) : ( ( mask & 1 ) != 0 ? v << 16 : 0 ) | ( ( mask & 2 ) != 0 ? v << 8 : 0 ) | ( ( mask & 4 ) != 0 ? v : 0 );
+				ret.setRGB( x, y, ( random.nextInt( 256 ) << 24 ) | rgb );
+			}
+		}
+
+		return ret;
+	}
+
+	private static void assertPixels( String message, int[] expected, BufferedImage actual ) {
+		int[] pixels = ImageUtils.getPixels( actual );
+
+		assertEquals( message, expected.length, pixels.length );
+		for ( int i = 0; i < expected.length; i++ ) {
+			if ( expected[i] != pixels[i] ) {
+				assertEquals( message + " at " + i, Integer.toHexString( expected[i] ), Integer.toHexString( pixels[i] ) );
+			}
+		}
+	}
+
+	private static void assertCorrupt( File file ) {
+		try {
+			MappedImage.open( file );
+			fail( "opened " + file.length() + " bytes" );
+		} catch ( IOException e ) {
+			// Expected
+		}
+	}
+
+	private File write( BufferedImage img, boolean withChannels ) throws IOException {
+		File ret = this.folder.newFile();
+		MappedImage.write( img, ret, withChannels );
+		return ret;
+	}
+
+	@Test
+	public void roundTrips() throws IOException {
+		for ( int type : new int[] { BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_4BYTE_ABGR } ) {
+			BufferedImage img = image( 37, 23, type );
+			int[] src = ImageUtils.getPixels( img );
+
+			for ( boolean withChannels : new boolean[] { false, true } ) {
+				MappedImage mapped = MappedImage.open( write( img, withChannels ) );
+
+				assertEquals( 37, mapped.getWidth() );
+				assertEquals( 23, mapped.getHeight() );
+				assertEquals( withChannels, mapped.hasChannels() );
+				assertPixels( "copy", src, mapped.toImage() );
+
+				for ( String dye : DYES ) {
+					Dye d = new Dye( dye );
+					int[] expected = new int[src.length];
+
+					for ( int i = 0; i < src.length; i++ ) {
+						expected[i] = d.update( src[i] );
+					}
+
+					assertPixels( dye + ( withChannels ? " with channels" : "" ), expected, mapped.recolor( d ) );
+				}
+			}
+		}
+	}
+
+	@Test
+	public void writesLittleEndianHeader() throws IOException {
+		BufferedImage img = image( 5, 3, BufferedImage.TYPE_INT_ARGB );
+
+		for ( boolean withChannels : new boolean[] { false, true } ) {
+			File file = write( img, withChannels );
+			byte[] bytes = new byte[(int) file.length()];
+
+			try ( RandomAccessFile raf = new RandomAccessFile( file, "r" ) ) {
+				raf.readFully( bytes );
+			}
+
+			ByteBuffer buffer = ByteBuffer.wrap( bytes ).order( ByteOrder.LITTLE_ENDIAN );
+
+			assertEquals( 24 + 15 * ( withChannels ? 6 : 4 ), bytes.length );
+			assertEquals( "MDYE", new String( bytes, 0, 4, "US-ASCII" ) );
+			assertEquals( MappedImage.VERSION, buffer.getInt( 4 ) );
+			assertEquals( 5, buffer.getInt( 8 ) );
+			assertEquals( 3, buffer.getInt( 12 ) );
+			assertEquals( withChannels ? MappedImage.FLAG_CHANNELS : 0, buffer.getInt( 16 ) );
+			assertEquals( 0, buffer.getInt( 20 ) );
+			assertEquals( img.getRGB( 0, 0 ), buffer.getInt( 24 ) );
+		}
+	}
+
+	@Test
+	public void rejectsCorruptFiles() throws IOException {
+		BufferedImage img = image( 5, 3, BufferedImage.TYPE_INT_ARGB );
+
+		for ( boolean withChannels : new boolean[] { false, true } ) {
+			long size = 24 + 15 * ( withChannels ? 6 : 4 );
+
+			// Truncated planes, truncated pixels, truncated header, an empty
+			// file and trailing bytes
+			for ( long length : new long[] { size - 1, 24 + 15 * 4 - 1, 40, 16, 0, size + 1 } ) {
+				File file = write( img, withChannels );
+
+				try ( RandomAccessFile raf = new RandomAccessFile( file, "rw" ) ) {
+					raf.setLength( length );
+				}
+				assertCorrupt( file );
+			}
+		}
+
+		// Bad magic number, version, and a size that doesn't match the file
+		int[][] patches = { { 0, 0x4559444e }, { 4, MappedImage.VERSION + 1 }, { 8, 6 }, { 12, -3 }, { 16, MappedImage.FLAG_CHANNELS } };
+
+		for ( int[] patch : patches ) {
+			File file = write( img, false );
+
+			try ( RandomAccessFile raf = new RandomAccessFile( file, "rw" ) ) {
+				raf.seek( patch[0] );
+				raf.writeInt( Integer.reverseBytes( patch[1] ) );
+			}
+			assertCorrupt( file );
+		}
+
+		// Still valid after all that
+		assertTrue( MappedImage.open( write( img, true ) ).hasChannels() );
+		assertFalse( MappedImage.open( write( img, false ) ).hasChannels() );
+	}
+}
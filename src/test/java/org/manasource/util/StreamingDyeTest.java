@@ -0,0 +1,132 @@
+/*
+ *  Copyright (C) 2013  Jared Adams
+ *
+ *  This file is part of ManaDye.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.manasource.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Dyes PNG files band by band and checks them against the whole image.
+ */
+public class StreamingDyeTest {
+
+	private static final Dye DYE = new Dye( "R:#00ff00;W:#000000,#ffffff;Y:#123456" );
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File png( int width, int height ) throws IOException {
+		Random random = new Random( 1 );
+		BufferedImage img = new BufferedImage( width, height, BufferedImage.TYPE_INT_ARGB );
+
+		for ( int y = 0; y < height; y++ ) {
+			for ( int x = 0; x < width; x++ ) {
+				int v = random.nextInt( 256 ), mask = random.nextInt( 8 );
+				int rgb = mask == 0 ? random.nextInt( 0x1000000 ) : ( ( mask & 1 ) != 0 ? v << 16 : 0 ) | ( ( mask & 2 ) != 0 ? v << 8 : 0 ) | ( ( mask & 4 ) != 0 ? v : 0 );
+				img.setRGB( x, y, ( random.nextInt( 256 ) << 24 ) | rgb );
+			}
+		}
+
+		File ret = this.folder.newFile( "in.png" );
+		ImageIO.write( img, "png", ret );
+		return ret;
+	}
+
+	/**
+	 * @param dyed a raster of packed ARGB ints
+	 */
+	private static void assertDyed( String message, BufferedImage source, Raster dyed, Rectangle region ) {
+		int[] row = new int[region.width];
+
+		for ( int y = region.y; y < region.y + region.height; y++ ) {
+			dyed.getDataElements( region.x, y, region.width, 1, row );
+
+			for ( int x = 0; x < region.width; x++ ) {
+				int expected = DYE.update( source.getRGB( region.x + x, y ) );
+
+				if ( row[x] != expected ) {
+					assertEquals( message + " at " + ( region.x + x ) + "," + y, Integer.toHexString( expected ), Integer.toHexString( row[x] ) );
+				}
+			}
+		}
+	}
+
+	@Test
+	public void matchesUpdate() throws IOException {
+		File in = png( 45, 70 );
+		BufferedImage source = ImageIO.read( in );
+
+		for ( int bandHeight : new int[] { 1, 16, 70, 256 } ) {
+			File out = this.folder.newFile( "out" + bandHeight + ".png" );
+
+			assertEquals( 45 * 70, StreamingDye.recolor( DYE, in, out, bandHeight ) );
+			BufferedImage dyed = ImageIO.read( out );
+
+			for ( int y = 0; y < 70; y++ ) {
+				for ( int x = 0; x < 45; x++ ) {
+					assertEquals( "band " + bandHeight + " at " + x + "," + y, DYE.update( source.getRGB( x, y ) ), dyed.getRGB( x, y ) );
+				}
+			}
+		}
+	}
+
+	@Test
+	public void tilesAreBands() throws IOException {
+		File in = png( 45, 70 );
+		BufferedImage source = ImageIO.read( in );
+
+		try ( ImageInputStream iis = ImageIO.createImageInputStream( in ) ) {
+			ImageReader reader = ImageIO.getImageReaders( iis ).next();
+			reader.setInput( iis, false, true );
+
+			StreamingDye.DyedBands bands = new StreamingDye.DyedBands( reader, DYE, 16 );
+
+			assertEquals( 45, bands.getTileWidth() );
+			assertEquals( 16, bands.getTileHeight() );
+			assertEquals( 1, bands.getNumXTiles() );
+			assertEquals( 5, bands.getNumYTiles() );
+			assertEquals( 16, bands.getSampleModel().getHeight() );
+
+			for ( int ty = 0; ty < bands.getNumYTiles(); ty++ ) {
+				Raster tile = bands.getTile( 0, ty );
+				Rectangle band = new Rectangle( 0, ty * 16, 45, Math.min( 16, 70 - ty * 16 ) );
+
+				assertEquals( band, tile.getBounds() );
+				assertDyed( "tile " + ty, source, tile, band );
+			}
+
+			reader.dispose();
+		}
+	}
+}